@@ -0,0 +1,61 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import javafx.application.Platform;
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+import ua.edu.sumdu.j2se.volyk.tasks.views.DialogWindow;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Notification sink which shows a dialog on the FX thread for each batch of notifications.
+ * A batch is delivered only when the dialog of the previous one is closed, so that the batches
+ * which fire meanwhile wait in the queue of the sink and are coalesced there, instead of piling up
+ * as dialogs on the FX thread.
+ */
+public class DialogNotificationSink implements NotificationSink {
+    /**
+     * {@inheritDoc}
+     * Waits until the dialog is closed. If the thread is interrupted, as the service is stopped,
+     * the dialog is left on the FX thread and the method returns at once.
+     */
+    @Override
+    public void deliver(List<Task> tasks) {
+        CountDownLatch shown = new CountDownLatch(1);
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    notifyTasks(tasks);
+                } finally {
+                    shown.countDown();
+                }
+            }
+        });
+        try {
+            shown.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shows a single window with notification for the tasks of a batch
+     *
+     * @param tasks tasks for which notification is shown
+     */
+    private static void notifyTasks(List<Task> tasks) {
+        if (tasks.size() == 1) {
+            DialogWindow.showInfoWindow("Time to do: " + tasks.get(0).toString());
+        } else {
+            StringBuilder text = new StringBuilder();
+            for (Task task : tasks) {
+                if (text.length() > 0) {
+                    text.append(System.lineSeparator());
+                }
+                text.append(task.toString());
+            }
+            DialogWindow.showInfoWindow("Time to do " + tasks.size() + " tasks:", text.toString());
+        }
+    }
+}
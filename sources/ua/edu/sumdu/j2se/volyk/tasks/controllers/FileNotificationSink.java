@@ -0,0 +1,57 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Notification sink which appends notifications to a local file, one line per task:
+ * the time of delivery and the task, separated by a tab.
+ */
+public class FileNotificationSink implements NotificationSink {
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private final Writer writer;
+
+    /**
+     * Opens the file for appending notifications, creating it if it does not exist.
+     *
+     * @param file file for notifications
+     * @throws IOException if the file can't be opened
+     */
+    public FileNotificationSink(File file) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The batch is flushed to the file before the method returns.
+     */
+    @Override
+    public void deliver(List<Task> tasks) throws IOException {
+        String time = dateFormat.format(new Date());
+        for (Task task : tasks) {
+            writer.write(time);
+            writer.write('\t');
+            writer.write(task.toString());
+            writer.write(System.lineSeparator());
+        }
+        writer.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
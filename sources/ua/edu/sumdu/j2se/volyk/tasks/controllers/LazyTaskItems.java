@@ -0,0 +1,39 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import javafx.collections.ObservableListBase;
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+import ua.edu.sumdu.j2se.volyk.tasks.models.TaskList;
+
+/**
+ * Read-only observable list over a task list, which takes tasks from the list only when they are requested.
+ * A list view shows only the visible tasks, so a {@link ua.edu.sumdu.j2se.volyk.tasks.models.PagedTaskList}
+ * is shown without parsing the whole file.
+ */
+class LazyTaskItems extends ObservableListBase<Task> {
+    private final TaskList tasks;
+
+    /**
+     * Creates observable list over the task list
+     *
+     * @param tasks task list, which doesn't change while it is shown
+     */
+    LazyTaskItems(TaskList tasks) {
+        this.tasks = tasks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Task get(int index) {
+        return tasks.getTask(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return tasks.size();
+    }
+}
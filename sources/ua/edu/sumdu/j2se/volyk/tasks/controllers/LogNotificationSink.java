@@ -0,0 +1,23 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import org.apache.log4j.Logger;
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+
+import java.util.List;
+
+/**
+ * Notification sink which writes notifications to the log, e.g. when the application runs without a display.
+ */
+public class LogNotificationSink implements NotificationSink {
+    private static final Logger log = Logger.getLogger(LogNotificationSink.class);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deliver(List<Task> tasks) {
+        for (Task task : tasks) {
+            log.info("Time to do: " + task.toString());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package ua.edu.sumdu.j2se.volyk.tasks.controllers;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
@@ -22,6 +23,8 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
 
 /**
  * Main controller of the application
@@ -29,13 +32,109 @@ import java.util.SortedMap;
 public class MainWindowController extends Application {
     private static final Logger log = Logger.getLogger(MainWindowController.class);
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+    /**
+     * System property which selects the timing wheel notification engine instead of the priority queue.
+     */
+    private static final String TIMING_WHEEL_PROPERTY = "taskmanager.notifications.timingWheel";
+    /**
+     * System properties with the batching window in milliseconds and the maximum batch size of notifications.
+     */
+    private static final String BATCH_WINDOW_PROPERTY = "taskmanager.notifications.batchWindow";
+    private static final String MAX_BATCH_SIZE_PROPERTY = "taskmanager.notifications.maxBatchSize";
+    /**
+     * System property with the path of a file, to which notifications are appended in addition to the dialogs.
+     */
+    private static final String NOTIFICATION_FILE_PROPERTY = "taskmanager.notifications.file";
+    /**
+     * Number of batches waiting for the dialog shown at the moment, the following batches are merged into one dialog
+     */
+    private static final int DIALOG_SINK_CAPACITY = 1;
+    /**
+     * System property with the policy for missed notifications: skip, all or collapse.
+     */
+    private static final String MISSED_POLICY_PROPERTY = "taskmanager.notifications.missed";
+    /**
+     * Suffix of the file next to the task file, which keeps the last instant processed by the notifications
+     */
+    private static final String MARK_FILE_SUFFIX = ".mark";
+    /**
+     * System property which turns on saving changes of the list to a journal next to the file
+     */
+    private static final String JOURNAL_PROPERTY = "taskmanager.journal";
+    /**
+     * System property with the delay of autosave after the last change in milliseconds, autosave is off if it is not set
+     */
+    private static final String AUTOSAVE_PROPERTY = "taskmanager.autosave";
+    /**
+     * System property with the size of a file in bytes, from which the file is shown page by page while it is loaded
+     */
+    private static final String PAGING_THRESHOLD_PROPERTY = "taskmanager.paging.threshold";
+    private static final long DEFAULT_PAGING_THRESHOLD = 8 * 1024 * 1024;
+    /**
+     * Extension of files in the format of {@link MappedTaskList}, which are saved by patches with the changes of the list
+     */
+    private static final String MAPPED_FILE_EXTENSION = ".tsm";
     private TaskList list;
     private ObservableList<Task> tasks;
+    /**
+     * Snapshots of the task list for reading it without locking, e.g. for the calendar and saving
+     */
+    private final TaskListPublisher snapshots = new TaskListPublisher();
     private File lastFile;
     private boolean isSavedFile = true;
     private String recentFileName = System.getProperty("user.dir") + "\\recentFile.txt";
     private TaskWindowView taskWindowView;
     private MainWindowView mainWindowView;
+    private NotificationController notificationController;
+    /**
+     * Loader of the file being loaded in background, {@code null} if there is none
+     */
+    private TextTaskLoader loader;
+    /**
+     * Title of the window before loading in background
+     */
+    private String loaderTitle;
+    /**
+     * File being loaded, which is shown page by page until it is loaded, {@code null} if there is none
+     */
+    private PagedTaskList preview;
+    /**
+     * Journal of the changes of the list in journal mode, {@code null} if the list has no file or the mode is off
+     */
+    private TaskJournal journal;
+    /**
+     * File the list was read from or saved to by patches, {@code null} if there is none
+     */
+    private File mappedFile;
+    private final SaveService saveService = new SaveService();
+    /**
+     * Marks the list as saved if it hasn't changed during the save and reports failures of saves
+     */
+    private final SaveService.Listener saveListener = new SaveService.Listener() {
+        @Override
+        public void saved(final TaskList tasks, final File file) {
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (snapshots.isCurrent(tasks)) {
+                        isSavedFile = true;
+                    }
+                    log.info("List is saved in file: " + file.getPath());
+                }
+            });
+        }
+
+        @Override
+        public void failed(TaskList tasks, File file, IOException e) {
+            log.error("IOException happened!", e);
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    DialogWindow.showErrorWindow("IOException happened!");
+                }
+            });
+        }
+    };
 
     public MainWindowController() {
     }
@@ -49,6 +148,19 @@ public class MainWindowController extends Application {
      */
     public MainWindowController(MainWindowView view) {
         mainWindowView = view;
+        notificationController = new NotificationController(createNotificationEngine());
+        notificationController.setBatchWindow(Long.getLong(BATCH_WINDOW_PROPERTY, 0));
+        notificationController.setMaxBatchSize(Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, NotificationController.DEFAULT_MAX_BATCH_SIZE));
+        addNotificationSinks();
+        saveService.setAutosaveDelay(Long.getLong(AUTOSAVE_PROPERTY, 0));
+        String missedPolicy = System.getProperty(MISSED_POLICY_PROPERTY);
+        if (missedPolicy != null) {
+            try {
+                notificationController.setMissedPolicy(MissedPolicy.valueOf(missedPolicy));
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown policy for missed notifications: " + missedPolicy);
+            }
+        }
         try (BufferedReader reader = new BufferedReader(new FileReader(recentFileName))) {
             String fileName = reader.readLine();
             if (fileName == null) {
@@ -95,10 +207,11 @@ public class MainWindowController extends Application {
     }
 
     /**
-     * Initiates observable task list
+     * Initiates observable task list. Each change of the list publishes a new version of it.
      */
     private void initObservableTaskList() {
         tasks = FXCollections.observableArrayList(list);
+        snapshots.publish(list);
         tasks.addListener(new ListChangeListener<Task>() {
             @Override
             public void onChanged(ListChangeListener.Change<? extends Task> c) {
@@ -111,18 +224,52 @@ public class MainWindowController extends Application {
                     }*/
                     list.addAll(c.getAddedSubList());
                 }
+                snapshots.publish(list);
             }
         });
         mainWindowView.setTaskListItems(tasks);
     }
 
     /**
-     * Starts notification thread
+     * Creates engine for planning notifications, which is selected by a system property
+     *
+     * @return engine for planning notifications
+     */
+    private static NotificationEngine createNotificationEngine() {
+        if (Boolean.getBoolean(TIMING_WHEEL_PROPERTY)) {
+            return new TimingWheelNotificationEngine(System.currentTimeMillis());
+        }
+        return new QueueNotificationEngine();
+    }
+
+    /**
+     * Adds sinks for notifications: dialogs, log, the file from the system property, if it is set,
+     * and the installed service providers
      */
-    private void startNotificationThread() {
-        Thread notificationThread = new Thread(new NotificationController(this));
-        notificationThread.start();
-        log.info("Notification thread started");
+    private void addNotificationSinks() {
+        int capacity = NotificationController.DEFAULT_SINK_CAPACITY;
+        notificationController.addSink(new DialogNotificationSink(), DIALOG_SINK_CAPACITY, OverflowPolicy.coalesce);
+        notificationController.addSink(new LogNotificationSink(), capacity, OverflowPolicy.dropOldest);
+        String fileName = System.getProperty(NOTIFICATION_FILE_PROPERTY);
+        if (fileName != null) {
+            try {
+                notificationController.addSink(new FileNotificationSink(new File(fileName)), capacity, OverflowPolicy.block);
+            } catch (IOException e) {
+                log.error("Can't open notification file: " + fileName, e);
+            }
+        }
+        notificationController.addInstalledSinks(capacity, OverflowPolicy.coalesce);
+    }
+
+    /**
+     * Makes the notification service follow the current task list and starts it, if it is not running yet.
+     * Notifications missed since the list was followed last time are delivered according to the missed policy.
+     */
+    private void startNotifications() {
+        notificationController.setTasks(tasks, lastFile != null ? new File(lastFile.getPath() + MARK_FILE_SUFFIX) : null);
+        if (!notificationController.isRunning()) {
+            notificationController.start();
+        }
     }
 
     /**
@@ -132,11 +279,9 @@ public class MainWindowController extends Application {
         log.info("Adding new task");
         showTaskWindow(null, WindowType.add);
         if (taskWindowView.isOkClicked()) {
-            synchronized (tasks) {
-                isSavedFile = false;
-                tasks.add(taskWindowView.getTask());
-                log.info("New task is added");
-            }
+            tasks.add(taskWindowView.getTask());
+            recordChange(null, taskWindowView.getTask());
+            log.info("New task is added");
         }
     }
 
@@ -159,8 +304,8 @@ public class MainWindowController extends Application {
         if (selectedIndex >= 0) {
             log.info("Delete selected task: " + mainWindowView.getSelectedTask());
             if (DialogWindow.showConfirmationWindow("Are you sure to delete this task?", mainWindowView.getSelectedTask().toString())) {
-                tasks.remove(selectedIndex);
-                isSavedFile = false;
+                Task removed = tasks.remove(selectedIndex);
+                recordChange(removed, null);
                 log.info("Task is deleted");
             }
         }
@@ -179,7 +324,69 @@ public class MainWindowController extends Application {
                 tasks.remove(mainWindowView.getSelectedTask());
                 tasks.add(index, taskWindowView.getTask());
                 //taskList.getSelectionModel().select(index);
-                isSavedFile = false;
+                recordChange(selectedTask, taskWindowView.getTask());
+            }
+        }
+    }
+
+    /**
+     * Records the change of the list. In journal mode the change is appended to the journal,
+     * which is compacted into the file on the thread of the save service when it grows, otherwise the list is marked as not saved
+     * and autosave is planned, if it is on. As a patch of a file in the format of {@link MappedTaskList} costs as much as
+     * the change, autosave of such a file writes the patch at once.
+     *
+     * @param removed removed or edited task, {@code null} if the task is added
+     * @param added   added task or the result of editing, {@code null} if the task is removed
+     */
+    private void recordChange(Task removed, Task added) {
+        if (journal == null) {
+            isSavedFile = false;
+            if (lastFile != null && saveService.isAutosave()) {
+                if (isMapped(lastFile)) {
+                    savePatch();
+                } else {
+                    saveService.autosave(snapshots.getSnapshot(), lastFile, saveListener);
+                }
+            }
+            return;
+        }
+        try {
+            if (removed == null) {
+                journal.add(added);
+            } else if (added == null) {
+                journal.remove(removed);
+            } else {
+                journal.edit(removed, added);
+            }
+            if (journal.needsCompaction()) {
+                saveService.compact(journal, snapshots.getSnapshot(), saveListener);
+            }
+        } catch (IOException e) {
+            log.error("IOException happened!", e);
+            DialogWindow.showErrorWindow("IOException happened!");
+            isSavedFile = false;
+        }
+    }
+
+    /**
+     * Closes the journal of the list, if there is one
+     */
+    private void closeJournal() {
+        closeJournal(journal);
+        journal = null;
+    }
+
+    /**
+     * Closes the journal, if it is not {@code null}
+     *
+     * @param journal journal to be closed
+     */
+    private static void closeJournal(TaskJournal journal) {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("IOException happened!", e);
             }
         }
     }
@@ -191,7 +398,7 @@ public class MainWindowController extends Application {
         try {
             Date fromDate = DATE_FORMAT.parse(mainWindowView.getFromDate());
             Date toDate = DATE_FORMAT.parse(mainWindowView.getToDate());
-            SortedMap<Date, Set<Task>> map = Tasks.calendar(tasks, fromDate, toDate);
+            SortedMap<Date, Set<Task>> map = Tasks.calendar(snapshots.getSnapshot(), fromDate, toDate);
             mainWindowView.setCalendarItems(map);
             log.info("Calendar is showed");
         } catch (ParseException e) {
@@ -231,6 +438,10 @@ public class MainWindowController extends Application {
         if (list != null && !isSavedFile && DialogWindow.showConfirmationWindow("Do you want to save changes before exit?", null)) {
             saveList();
         }
+        cancelLoading();
+        closeJournal();
+        saveService.stop();
+        notificationController.stop();
         if (lastFile != null) {
             log.info("Remembering last file.");
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(recentFileName)))) {
@@ -254,31 +465,177 @@ public class MainWindowController extends Application {
         }
         FileChooser fileChooser = new FileChooser();
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text files", "*.txt"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Task files", "*" + MAPPED_FILE_EXTENSION));
         lastFile = fileChooser.showOpenDialog(mainWindowView.getStage());
         loadFromFile();
     }
 
     /**
-     * Loads task list from the file that was last opened, saved or chosen in FileChooser open dialog
+     * Loads task list from the file that was last opened, saved or chosen in FileChooser open dialog.
+     * The file is parsed in parallel on a background thread, the progress is shown in the title of the window.
+     * A large file is shown page by page at once, task buttons are disabled until it is loaded.
+     * A file in the format of {@link MappedTaskList} is read on the background thread as well.
+     * Loading of the previous file, if it is not finished, is cancelled.
      */
     private void loadFromFile() {
-        list = new ArrayTaskList();
+        cancelLoading();
         if (lastFile != null) {
-            try {
-                TaskIO.readText(list, lastFile);
-                initList();
-                isSavedFile = true;
-                log.info("List is loaded from file: " + lastFile.getPath());
-            } catch (IOException e) {
-                log.error("IOException happened!", e);
-                DialogWindow.showErrorWindow("IOException happened!");
-            } catch (ParseException e) {
-                log.error("The data in the file is not in the appropriate format.");
-                DialogWindow.showErrorWindow("The data in the file is not in the appropriate format.");
+            final File file = lastFile;
+            final TextTaskLoader fileLoader = new TextTaskLoader(file);
+            final Stage stage = mainWindowView.getStage();
+            final String title = stage.getTitle();
+            loader = fileLoader;
+            loaderTitle = title;
+            fileLoader.setProgressListener(new DoubleConsumer() {
+                @Override
+                public void accept(final double progress) {
+                    Platform.runLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (loader == fileLoader) {
+                                stage.setTitle(title + " - loading " + (int) (progress * 100) + "%");
+                            }
+                        }
+                    });
+                }
+            });
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final ArrayTaskList loaded = new ArrayTaskList(true);
+                    final boolean mapped = isMapped(file);
+                    if (!mapped && file.length() >= Long.getLong(PAGING_THRESHOLD_PROPERTY, DEFAULT_PAGING_THRESHOLD)) {
+                        showPreview(fileLoader, file);
+                    }
+                    try {
+                        if (mapped) {
+                            TaskIO.readMapped(loaded, file);
+                        } else {
+                            fileLoader.load(loaded);
+                        }
+                        final TaskJournal fileJournal = !mapped && Boolean.getBoolean(JOURNAL_PROPERTY) ? new TaskJournal(file) : null;
+                        if (fileJournal != null) {
+                            int replayed = fileJournal.replay(loaded);
+                            log.info(replayed + " changes are replayed from the journal of file: " + file.getPath());
+                        }
+                        Platform.runLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (loader != fileLoader) {
+                                    closeJournal(fileJournal);
+                                } else {
+                                    loader = null;
+                                    stage.setTitle(title);
+                                    closeJournal();
+                                    journal = fileJournal;
+                                    mappedFile = mapped ? file : null;
+                                    list = loaded;
+                                    initList();
+                                    endPreview(false);
+                                    isSavedFile = true;
+                                    log.info("List is loaded from file: " + file.getPath());
+                                }
+                            }
+                        });
+                    } catch (CancellationException e) {
+                        log.info("Loading of file " + file.getPath() + " is cancelled.");
+                    } catch (IOException e) {
+                        log.error("IOException happened!", e);
+                        loadingFailed(fileLoader, title, "IOException happened!");
+                    } catch (ParseException e) {
+                        log.error("The data in the file is not in the appropriate format. " + e.getMessage());
+                        loadingFailed(fileLoader, title, "The data in the file is not in the appropriate format.\n" + e.getMessage());
+                    }
+                }
+            }, "Loader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Shows the error of background loading, if the loader is still the current one
+     */
+    private void loadingFailed(final TextTaskLoader fileLoader, final String title, final String text) {
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                if (loader == fileLoader) {
+                    loader = null;
+                    mainWindowView.getStage().setTitle(title);
+                    endPreview(true);
+                    DialogWindow.showErrorWindow(text);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels loading of the file in background, if there is one
+     */
+    private void cancelLoading() {
+        if (loader != null) {
+            loader.cancel();
+            loader = null;
+            mainWindowView.getStage().setTitle(loaderTitle);
+            endPreview(true);
+        }
+    }
+
+    /**
+     * Opens the file page by page and shows it while it is loaded. The index of the file is read or built
+     * on the calling thread, the list is shown on the application thread, if the loader is still the current one.
+     *
+     * @param fileLoader loader of the file
+     * @param file       file being loaded
+     */
+    private void showPreview(final TextTaskLoader fileLoader, File file) {
+        final PagedTaskList paged;
+        try {
+            paged = TaskIO.openPaged(file);
+        } catch (IOException e) {
+            log.warn("Can't open file page by page: " + file.getPath(), e);
+            return;
+        }
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                if (loader == fileLoader) {
+                    endPreview(false);
+                    preview = paged;
+                    mainWindowView.setTaskListItems(new LazyTaskItems(paged));
+                    mainWindowView.setTaskAndSaveButtonsDisabled(true);
+                } else {
+                    closePreview(paged);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the file shown page by page, if there is one
+     *
+     * @param restoreList whether the current list has to be shown again
+     */
+    private void endPreview(boolean restoreList) {
+        if (preview != null) {
+            closePreview(preview);
+            preview = null;
+            if (restoreList) {
+                mainWindowView.setTaskListItems(tasks);
+                mainWindowView.setTaskAndSaveButtonsDisabled(tasks == null);
             }
         }
     }
 
+    private static void closePreview(PagedTaskList paged) {
+        try {
+            paged.close();
+        } catch (IOException e) {
+            log.error("IOException happened!", e);
+        }
+    }
+
     /**
      * Loads task list fro previous session
      */
@@ -312,7 +669,10 @@ public class MainWindowController extends Application {
                 saveList();
             }
         }
-        list = new ArrayTaskList();
+        cancelLoading();
+        closeJournal();
+        mappedFile = null;
+        list = new ArrayTaskList(true);
         initList();
         log.info("New list is loaded.");
     }
@@ -322,7 +682,7 @@ public class MainWindowController extends Application {
         if (mainWindowView.isTaskAndSaveButtonsDisabled()) {
             mainWindowView.setTaskAndSaveButtonsDisabled(false);
         }
-        startNotificationThread();
+        startNotifications();
     }
 
     /**
@@ -342,24 +702,86 @@ public class MainWindowController extends Application {
     public void saveListAs() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text files", "*.txt"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Task files", "*" + MAPPED_FILE_EXTENSION));
         lastFile = fileChooser.showSaveDialog(mainWindowView.getStage());
         saveToFile();
     }
 
     /**
-     * Saves task list to the file that was last opened, saved or chosen in FileChooser save dialog
+     * Saves task list to the file that was last opened, saved or chosen in FileChooser save dialog.
+     * The snapshot of the list is written atomically on the thread of the save service.
+     * In journal mode the journal is compacted into the file on the same thread. If the file has no journal yet,
+     * it is started at once, so that the changes made before the compaction ends are kept on the disk.
+     * A file in the format of {@link MappedTaskList} is saved by a patch with the changes of the list instead.
      */
     private void saveToFile() {
         if (lastFile != null) {
-            try {
-                TaskIO.writeText(list, lastFile);
-                isSavedFile = true;
-                log.info("List is saved in file: " + lastFile.getPath());
-            } catch (IOException e) {
-                log.error("IOException happened!", e);
-                DialogWindow.showErrorWindow("IOException happened!");
+            if (isMapped(lastFile)) {
+                savePatch();
+                return;
+            }
+            if (!Boolean.getBoolean(JOURNAL_PROPERTY)) {
+                saveService.save(snapshots.getSnapshot(), lastFile, saveListener);
+                return;
             }
+            if (journal == null || !journal.getFile().equals(lastFile)) {
+                closeJournal();
+                TaskJournal fileJournal = new TaskJournal(lastFile);
+                try {
+                    fileJournal.start();
+                } catch (IOException e) {
+                    log.error("IOException happened!", e);
+                    DialogWindow.showErrorWindow("IOException happened!");
+                    return;
+                }
+                journal = fileJournal;
+            }
+            saveService.compact(journal, snapshots.getSnapshot(), saveListener);
+        }
+    }
+
+    /**
+     * Writes the changes of the list to its file in the format of {@link MappedTaskList} on the thread of the save service.
+     * The whole file is written, if the list was not read from it or saved to it yet or the previous patch failed.
+     */
+    private void savePatch() {
+        final ArrayTaskList arrayList = (ArrayTaskList) list;
+        closeJournal();
+        if (!lastFile.equals(mappedFile)) {
+            arrayList.forgetMappedFile();
+            mappedFile = lastFile;
         }
+        final long version = snapshots.getVersion();
+        saveService.savePatch(arrayList.takeMappedPatch(), lastFile, new SaveService.Listener() {
+            @Override
+            public void saved(TaskList tasks, final File file) {
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (list == arrayList && snapshots.getVersion() == version) {
+                            isSavedFile = true;
+                        }
+                        log.info("List is saved in file: " + file.getPath());
+                    }
+                });
+            }
+
+            @Override
+            public void failed(TaskList tasks, File file, IOException e) {
+                log.error("IOException happened!", e);
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        arrayList.forgetMappedFile();
+                        DialogWindow.showErrorWindow("IOException happened!");
+                    }
+                });
+            }
+        });
+    }
+
+    private static boolean isMapped(File file) {
+        return file.getName().endsWith(MAPPED_FILE_EXTENSION);
     }
 
     /**
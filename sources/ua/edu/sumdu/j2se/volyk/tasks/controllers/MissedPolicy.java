@@ -0,0 +1,12 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+/**
+ * Enumeration of policies for notifications missed while the application was not running,
+ * the computer was suspended or the notification thread was paused:
+ * - skip: missed notifications are not delivered
+ * - all: each missed notification is delivered, up to a limit per task
+ * - collapse: all missed notifications of a task are delivered as one notification
+ */
+public enum MissedPolicy {
+    skip, all, collapse
+}
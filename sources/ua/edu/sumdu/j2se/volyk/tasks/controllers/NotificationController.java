@@ -1,63 +1,640 @@
 package ua.edu.sumdu.j2se.volyk.tasks.controllers;
 
-import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import org.apache.log4j.Logger;
 import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
-import ua.edu.sumdu.j2se.volyk.tasks.views.DialogWindow;
 
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
 
 /**
- * Represents a notification thread for the application
+ * Represents the notification service of the application.
+ * Tasks of the current list are planned in a {@link NotificationEngine} at the time of their next notification.
+ * The service runs a single thread, which sleeps until the engine has due notifications and is woken up when
+ * the task list changes, so that the plan can be updated.
+ * The service is started with {@link #start()} and stopped with {@link #stop()}. When another list is opened,
+ * {@link #setTasks(ObservableList)} replaces the plan of the previous list by the plan of the new one.
+ * Notifications which fire together are delivered as a batch. A batch collects the notifications
+ * fired within the batching window after its first one, up to the maximum batch size.
+ * Batches are delivered to {@link NotificationSink}s, each of them fed from its own bounded queue
+ * by its own thread, so that the scheduler never waits for a slow sink, unless the sink uses
+ * the {@link OverflowPolicy#block} policy.
+ * The last processed instant may be kept in a mark file next to the task file. When the list is opened
+ * again, notifications after the mark are planned and fire at once. Notifications which fire too late,
+ * at startup or after the computer was suspended, are handled by the {@link MissedPolicy}.
  */
-public class NotificationController implements Runnable {
-    private MainWindowController mainWindowController;
-    private long curTime = 0;
-
-    public NotificationController(MainWindowController controller) {
-        mainWindowController = controller;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void run() {
-        while (true) {
-            List<Task> list = mainWindowController.getTasks();
-            Date curDate = new Date();
-            long localCurTime = curDate.getTime() / 1000;
-
-            if (localCurTime > curTime) {
-                synchronized (list) {
-                    if (list != null) {
-                        for (Task task : list) {
-                            if (task != null) {
-                                Date almostCurDate = new Date(curDate.getTime() - 1);
-                                if (task.nextTimeAfter(almostCurDate) != null && task.nextTimeAfter(almostCurDate).equals(curDate)) {
-                                    notifyTask(task);
-                                }
-                            }
-                        }
-                    }
+public class NotificationController {
+    private static final Logger log = Logger.getLogger(NotificationController.class);
+    /**
+     * Notifications which fire later than that after their time are considered missed
+     */
+    private static final long MISSED_LAG = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * Maximum number of missed notifications of one task delivered under the {@link MissedPolicy#all} policy
+     */
+    static final int MAX_MISSED_PER_TASK = 10;
+    /**
+     * Default maximum number of tasks in one batch of notifications
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    /**
+     * Default maximum number of batches in the queue of a sink
+     */
+    public static final int DEFAULT_SINK_CAPACITY = 64;
+    private final NotificationEngine engine;
+    private final Map<Task, Integer> counts = new IdentityHashMap<>();
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final ListChangeListener<Task> listener = new ListChangeListener<Task>() {
+        @Override
+        public void onChanged(ListChangeListener.Change<? extends Task> c) {
+            while (c.next()) {
+                for (Task t : c.getRemoved()) {
+                    changes.add(new NotificationController.Change(t, false));
+                }
+                for (Task t : c.getAddedSubList()) {
+                    changes.add(new NotificationController.Change(t, true));
                 }
-                curTime = localCurTime;
             }
+            wakeUp();
+        }
+    };
+    private ObservableList<Task> tasks;
+    private Thread thread;
+    private long drainRequested;
+    private long drainCompleted;
+    private final List<Task> batch = new ArrayList<>();
+    private final List<SinkDispatcher> sinks = new CopyOnWriteArrayList<>();
+    private long batchStart;
+    private volatile long batchWindow;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile MissedPolicy missedPolicy = MissedPolicy.collapse;
+    private File markFile;
+    /**
+     * Last processed instant read from the mark file of the list, -1 if there is none
+     */
+    private long markedSince = -1;
+    private long processedUntil = -1;
+    private boolean fired;
+    private volatile int queueDepth;
+    private volatile long lastFireLag;
+    private volatile long maxFireLag;
 
+    /**
+     * Task added to or removed from the list, which is not yet reflected in the plan,
+     * or replacement of the list, if there is no task
+     */
+    private static class Change {
+        private final Task task;
+        private final boolean added;
+        /**
+         * Notifications of the added task are planned after the instant from the mark file of the list,
+         * otherwise from now
+         */
+        private final boolean sinceMark;
+        /**
+         * Mark file of the new list
+         */
+        private final File markFile;
+
+        private Change(Task task, boolean added) {
+            this(task, added, false, null);
+        }
+
+        private Change(Task task, boolean added, boolean sinceMark, File markFile) {
+            this.task = task;
+            this.added = added;
+            this.sinceMark = sinceMark;
+            this.markFile = markFile;
         }
     }
 
     /**
-     * Shows window with notification for some task
+     * Creates notification service, which plans notifications in a priority queue.
+     */
+    public NotificationController() {
+        this(new QueueNotificationEngine());
+    }
+
+    /**
+     * Creates notification service.
+     *
+     * @param engine engine for planning notifications
+     */
+    public NotificationController(NotificationEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Sets the task list to be followed, without a mark file.
      *
-     * @param task task for which notification is shown
+     * @param tasks observable task list or {@code null} to stop following any list
+     * @see #setTasks(ObservableList, File)
      */
-    private void notifyTask(Task task) {
-        Platform.runLater(new Runnable() {
+    public void setTasks(ObservableList<Task> tasks) {
+        setTasks(tasks, null);
+    }
+
+    /**
+     * Sets the task list to be followed. The tasks of the previous list are removed from the plan,
+     * the tasks which are currently in the new list are planned and later changes of the new list
+     * are followed by a listener.
+     * If the mark file contains the last instant processed for the list, the notifications
+     * after that instant are planned, so the notifications missed since then fire at once.
+     * The mark file is read on the notification thread and is updated while the list is followed.
+     *
+     * @param tasks    observable task list or {@code null} to stop following any list
+     * @param markFile file with the last processed instant or {@code null}
+     */
+    public synchronized void setTasks(ObservableList<Task> tasks, File markFile) {
+        if (this.tasks != null) {
+            this.tasks.removeListener(listener);
+        }
+        changes.add(new Change(null, false, false, markFile));
+        this.tasks = tasks;
+        if (tasks != null) {
+            for (Task task : tasks) {
+                changes.add(new Change(task, true, true, null));
+            }
+            tasks.addListener(listener);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Sets the policy for missed notifications. The default policy is {@link MissedPolicy#collapse}.
+     *
+     * @param missedPolicy policy for missed notifications
+     * @throws IllegalArgumentException if the policy is null
+     */
+    public void setMissedPolicy(MissedPolicy missedPolicy) {
+        if (missedPolicy == null) {
+            throw new IllegalArgumentException("Missed policy can't be null.");
+        }
+        this.missedPolicy = missedPolicy;
+    }
+
+    /**
+     * Returns the policy for missed notifications.
+     *
+     * @return policy for missed notifications
+     */
+    public MissedPolicy getMissedPolicy() {
+        return missedPolicy;
+    }
+
+    /**
+     * Adds a sink which receives batches of notifications. If the service is running,
+     * the sink starts receiving notifications at once.
+     *
+     * @param sink     notification sink
+     * @param capacity maximum number of batches waiting in the queue of the sink
+     * @param policy   policy for the full queue
+     * @throws IllegalArgumentException if the sink or the policy is null or the capacity is not positive
+     */
+    public synchronized void addSink(NotificationSink sink, int capacity, OverflowPolicy policy) {
+        SinkDispatcher dispatcher = new SinkDispatcher(sink, capacity, policy);
+        sinks.add(dispatcher);
+        if (thread != null) {
+            dispatcher.start();
+        }
+        log.info("Notification sink added: " + sink.getClass().getName());
+    }
+
+    /**
+     * Adds the sinks declared by the installed service providers of {@link NotificationSink}.
+     *
+     * @param capacity maximum number of batches waiting in the queue of each sink
+     * @param policy   policy for the full queues
+     * @return the number of added sinks
+     */
+    public int addInstalledSinks(int capacity, OverflowPolicy policy) {
+        int count = 0;
+        for (NotificationSink sink : ServiceLoader.load(NotificationSink.class)) {
+            addSink(sink, capacity, policy);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Starts the notification thread and the threads of the sinks.
+     *
+     * @throws IllegalStateException if the service is already running
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Notification service is already running.");
+        }
+        for (SinkDispatcher sink : sinks) {
+            sink.start();
+        }
+        thread = new Thread(new Runnable() {
             @Override
             public void run() {
-                DialogWindow.showInfoWindow("Time to do: " + task.toString());
+                runScheduler();
+            }
+        }, "Notifications");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Notification service started");
+    }
+
+    /**
+     * Stops the notification thread and waits for it to finish, then lets the sinks deliver
+     * the queued notifications and closes them. The plan is kept, so the service may be started again.
+     * If the calling thread is interrupted, the sinks are stopped without waiting for them
+     * and the interrupt is kept. Does nothing if the service is not running.
+     */
+    public void stop() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (stopped != null) {
+            stopped.interrupt();
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for notification thread to stop");
+                Thread.currentThread().interrupt();
+            } finally {
+                stopSinks();
             }
-        });
+            log.info("Notification service stopped");
+        }
+    }
+
+    /**
+     * Stops the threads of the sinks. Once the calling thread is interrupted, the remaining sinks
+     * are still told to stop, but they are not waited for.
+     */
+    private void stopSinks() {
+        for (SinkDispatcher sink : sinks) {
+            try {
+                sink.stop();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for notification sink to stop");
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the notification thread is running.
+     *
+     * @return whether the notification thread is running
+     */
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * Waits until all changes of the task list made before the call are reflected in the plan
+     * and all notifications due at the time of the call are fired.
+     *
+     * @throws InterruptedException  if the current thread is interrupted while waiting
+     * @throws IllegalStateException if the service is not running
+     */
+    public synchronized void drain() throws InterruptedException {
+        if (thread == null) {
+            throw new IllegalStateException("Notification service is not running.");
+        }
+        long target = ++drainRequested;
+        notifyAll();
+        while (drainCompleted < target && thread != null) {
+            wait();
+        }
+    }
+
+    /**
+     * Sets the batching window. Notifications fired within the window after the first notification
+     * of a batch are delivered together with it. With the default window of 0 a batch consists
+     * of the notifications which are due at the same time.
+     *
+     * @param batchWindow batching window in milliseconds
+     * @throws IllegalArgumentException if the window is negative
+     */
+    public void setBatchWindow(long batchWindow) {
+        if (batchWindow < 0) {
+            throw new IllegalArgumentException("Entered value: batchWindow=" + batchWindow + " - not valid. Has to be >= 0.");
+        }
+        this.batchWindow = batchWindow;
+        wakeUp();
+    }
+
+    /**
+     * Returns the batching window.
+     *
+     * @return batching window in milliseconds
+     */
+    public long getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * Sets the maximum number of tasks in one batch. A full batch is delivered at once,
+     * the following notifications start a new batch.
+     *
+     * @param maxBatchSize maximum number of tasks in one batch
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Entered value: maxBatchSize=" + maxBatchSize + " - not valid. Has to be > 0.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns the maximum number of tasks in one batch.
+     *
+     * @return maximum number of tasks in one batch
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns the number of planned notifications.
+     *
+     * @return the number of planned notifications
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the number of batches of notifications which were dropped because the queue of a sink was full.
+     *
+     * @return the number of dropped batches
+     */
+    public long getDroppedBatches() {
+        long dropped = 0;
+        for (SinkDispatcher sink : sinks) {
+            dropped += sink.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * Returns how late the last notification was fired in comparison with its planned time.
+     *
+     * @return lag of the last notification in milliseconds
+     */
+    public long getLastFireLag() {
+        return lastFireLag;
+    }
+
+    /**
+     * Returns the greatest lag of a notification since the service was created.
+     *
+     * @return the greatest lag in milliseconds
+     */
+    public long getMaxFireLag() {
+        return maxFireLag;
+    }
+
+    /**
+     * Body of the notification thread
+     */
+    private void runScheduler() {
+        ObjLongConsumer<Task> fire = new ObjLongConsumer<Task>() {
+            @Override
+            public void accept(Task task, long time) {
+                long now = System.currentTimeMillis();
+                long lag = now - time;
+                lastFireLag = lag;
+                maxFireLag = Math.max(maxFireLag, lag);
+                log.debug("Notification of a task fired with lag " + lag + " ms");
+                fired = true;
+                if (lag > MISSED_LAG) {
+                    fireMissed(task, time, now);
+                } else {
+                    addToBatch(task);
+                    plan(task, task.nextTimeAfter(time));
+                }
+            }
+        };
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long requested;
+                boolean draining;
+                synchronized (this) {
+                    requested = drainRequested;
+                    draining = drainRequested != drainCompleted;
+                }
+                File previousMarkFile = markFile;
+                applyChanges();
+                long now = System.currentTimeMillis();
+                fired = false;
+                engine.pollDue(now, fire);
+                queueDepth = engine.size();
+                if (markFile != null && (markFile != previousMarkFile || fired)) {
+                    writeMark(markFile, now);
+                }
+                processedUntil = now;
+                if (!batch.isEmpty() && (draining || now >= batchStart + batchWindow)) {
+                    deliverBatch();
+                }
+                long next = engine.nextTime();
+                if (!batch.isEmpty() && (next == -1 || batchStart + batchWindow < next)) {
+                    next = batchStart + batchWindow;
+                }
+                synchronized (this) {
+                    drainCompleted = requested;
+                    notifyAll();
+                    if (changes.isEmpty() && drainRequested == drainCompleted && (next == -1 || next > now)) {
+                        wait(next == -1 ? 0 : next - now);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            log.info("Notification thread interrupted");
+        }
+        if (!batch.isEmpty()) {
+            deliverBatch();
+        }
+        if (markFile != null && processedUntil != -1) {
+            writeMark(markFile, processedUntil);
+        }
+    }
+
+    /**
+     * Handles the notification of the task which fired too late according to the policy for missed notifications
+     * and plans the next notification after the current time
+     *
+     * @param task task whose notification is missed
+     * @param time time of the first missed notification
+     * @param now  current time
+     */
+    private void fireMissed(Task task, long time, long now) {
+        MissedPolicy policy = missedPolicy;
+        if (policy == MissedPolicy.all) {
+            long missed = countMissed(task, time, now);
+            for (long i = Math.min(missed, MAX_MISSED_PER_TASK); i > 0; i--) {
+                addToBatch(task);
+            }
+            if (missed > MAX_MISSED_PER_TASK) {
+                log.info((missed - MAX_MISSED_PER_TASK) + " more missed notifications of a task are skipped");
+            }
+        } else if (policy == MissedPolicy.collapse) {
+            addToBatch(task);
+        } else {
+            log.debug("Missed notifications of a task are skipped");
+        }
+        plan(task, task.nextTimeAfter(now));
+    }
+
+    /**
+     * Returns the number of notifications of the task from the missed one up to the current time
+     *
+     * @param task task whose notification is missed
+     * @param time time of the first missed notification
+     * @param now  current time
+     * @return number of missed notifications, at least 1
+     */
+    private static long countMissed(Task task, long time, long now) {
+        long last = Math.min(now, task.getEndTime().getTime());
+        if (!task.isRepeated() || last <= time) {
+            return 1;
+        }
+        return (last - time) / (task.getRepeatInterval() * 60L * 1000) + 1;
+    }
+
+    /**
+     * Adds the task to the current batch of notifications and delivers the batch, if it is full
+     *
+     * @param task task to be notified
+     */
+    private void addToBatch(Task task) {
+        if (batch.isEmpty()) {
+            batchStart = System.currentTimeMillis();
+        }
+        batch.add(task);
+        if (batch.size() >= maxBatchSize) {
+            deliverBatch();
+        }
+    }
+
+    /**
+     * Returns the last processed instant stored in the mark file or -1 if there is none
+     *
+     * @param file mark file
+     * @return time in milliseconds or -1
+     */
+    private static long readMark(File file) {
+        if (!file.isFile()) {
+            return -1;
+        }
+        try {
+            long mark = Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim());
+            return mark >= 0 ? mark : -1;
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Can't read notification mark file: " + file, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Stores the last processed instant in the mark file. The file is replaced atomically,
+     * so it always contains a whole mark.
+     *
+     * @param file mark file
+     * @param time time in milliseconds
+     */
+    private static void writeMark(File file, long time) {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.write(temp, Long.toString(time).getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Can't write notification mark file: " + file, e);
+        }
+    }
+
+    /**
+     * Wakes up the notification thread to update the plan
+     */
+    private synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Updates the plan with the changes of the task list
+     */
+    private void applyChanges() {
+        Change change;
+        while ((change = changes.poll()) != null) {
+            if (change.task == null) {
+                for (Task task : new ArrayList<>(counts.keySet())) {
+                    engine.cancel(task);
+                }
+                counts.clear();
+                if (markFile != null && processedUntil != -1) {
+                    writeMark(markFile, processedUntil);
+                }
+                markFile = change.markFile;
+                markedSince = markFile != null ? readMark(markFile) : -1;
+                continue;
+            }
+            Integer count = counts.get(change.task);
+            if (change.added) {
+                if (count != null) {
+                    counts.put(change.task, count + 1);
+                } else {
+                    counts.put(change.task, 1);
+                    long since = change.sinceMark && markedSince != -1 ? markedSince : System.currentTimeMillis() - 1;
+                    plan(change.task, change.task.nextTimeAfter(since));
+                }
+            } else if (count != null && count > 1) {
+                counts.put(change.task, count - 1);
+            } else if (count != null) {
+                counts.remove(change.task);
+                engine.cancel(change.task);
+            }
+        }
+    }
+
+    /**
+     * Plans notification of the task for the specified time, if there is one
+     *
+     * @param task task to be planned
+     * @param time time of the notification or -1
+     */
+    private void plan(Task task, long time) {
+        if (time != -1) {
+            engine.schedule(task, time);
+        }
+    }
+
+    /**
+     * Passes the collected batch of notifications to the sinks and starts a new batch
+     */
+    private void deliverBatch() {
+        List<Task> delivered = Collections.unmodifiableList(new ArrayList<>(batch));
+        batch.clear();
+        log.debug("Delivering batch of " + delivered.size() + " notifications");
+        for (SinkDispatcher sink : sinks) {
+            sink.offer(delivered);
+        }
     }
 }
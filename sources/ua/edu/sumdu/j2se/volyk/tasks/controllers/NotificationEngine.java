@@ -0,0 +1,50 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Plan of task notifications used by {@link NotificationController}.
+ * Each task is planned at most once, at the time of its next notification.
+ */
+public interface NotificationEngine {
+    /**
+     * Plans notification of the task at the specified time.
+     *
+     * @param task task to be notified
+     * @param time time of the notification in milliseconds
+     */
+    void schedule(Task task, long time);
+
+    /**
+     * Cancels the planned notification of the task, if there is one.
+     *
+     * @param task task whose notification is cancelled
+     */
+    void cancel(Task task);
+
+    /**
+     * Removes from the plan all notifications due at the specified time or earlier
+     * and passes them to the action in order of time. The action may plan tasks again.
+     *
+     * @param now    current time in milliseconds
+     * @param action action that receives a task and time of its notification
+     */
+    void pollDue(long now, ObjLongConsumer<Task> action);
+
+    /**
+     * Returns time when {@link #pollDue(long, ObjLongConsumer)} has to be called next,
+     * or -1 if nothing is planned.
+     *
+     * @return time in milliseconds or -1
+     */
+    long nextTime();
+
+    /**
+     * Returns the number of planned notifications.
+     *
+     * @return the number of planned notifications
+     */
+    int size();
+}
@@ -0,0 +1,34 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receiver of task notifications. Each sink added to {@link NotificationController} is fed
+ * from its own bounded queue by its own thread, so a slow sink does not delay the scheduler
+ * or other sinks.
+ * Additional sinks may be provided by other jars, which declare them in
+ * {@code META-INF/services/ua.edu.sumdu.j2se.volyk.tasks.controllers.NotificationSink}.
+ */
+public interface NotificationSink {
+    /**
+     * Delivers a batch of notifications, which fired at the same time.
+     * The next batch is not delivered until the method returns, so a sink which waits here until
+     * the batch is handled keeps its queue bounded. The thread of the sink is interrupted when
+     * the service is stopped, a sink waiting for another thread has to stop waiting then.
+     *
+     * @param tasks tasks to be notified
+     * @throws IOException if an I/O error occurs
+     */
+    void deliver(List<Task> tasks) throws IOException;
+
+    /**
+     * Releases resources of the sink, when the notification service is stopped.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,12 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+/**
+ * Enumeration of policies for a full queue of a notification sink:
+ * - block: the scheduler waits until the sink takes a batch from the queue
+ * - dropOldest: the oldest batch in the queue is dropped
+ * - coalesce: the batch is merged into the last batch in the queue, each task is kept once
+ * and the oldest tasks are dropped from a merged batch which grows too large
+ */
+public enum OverflowPolicy {
+    block, dropOldest, coalesce
+}
@@ -0,0 +1,98 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Notification engine which keeps planned notifications in a priority queue
+ * ordered by time. Planning and firing a notification take O(log n) time.
+ * Cancelled notifications are left in the queue and skipped when they reach its head.
+ */
+public class QueueNotificationEngine implements NotificationEngine {
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Map<Task, Entry> entries = new IdentityHashMap<>();
+
+    /**
+     * Planned notification of a task
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final Task task;
+        private final long time;
+        private boolean cancelled;
+
+        private Entry(Task task, long time) {
+            this.task = task;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(time, o.time);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void schedule(Task task, long time) {
+        cancel(task);
+        Entry entry = new Entry(task, time);
+        entries.put(task, entry);
+        queue.add(entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(Task task) {
+        Entry entry = entries.remove(task);
+        if (entry != null) {
+            entry.cancelled = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void pollDue(long now, ObjLongConsumer<Task> action) {
+        List<Entry> due = new ArrayList<>();
+        while (!queue.isEmpty() && (queue.peek().cancelled || queue.peek().time <= now)) {
+            Entry entry = queue.poll();
+            if (!entry.cancelled) {
+                entries.remove(entry.task);
+                due.add(entry);
+            }
+        }
+        for (Entry entry : due) {
+            action.accept(entry.task, entry.time);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long nextTime() {
+        while (!queue.isEmpty() && queue.peek().cancelled) {
+            queue.poll();
+        }
+        return queue.isEmpty() ? -1 : queue.peek().time;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return entries.size();
+    }
+}
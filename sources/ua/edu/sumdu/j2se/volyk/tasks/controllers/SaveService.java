@@ -0,0 +1,268 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import org.apache.log4j.Logger;
+import ua.edu.sumdu.j2se.volyk.tasks.models.MappedPatch;
+import ua.edu.sumdu.j2se.volyk.tasks.models.TaskIO;
+import ua.edu.sumdu.j2se.volyk.tasks.models.TaskJournal;
+import ua.edu.sumdu.j2se.volyk.tasks.models.TaskList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves task lists in the text format on a background thread, so that the window doesn't wait for the write.
+ * The saved list has to be an immutable snapshot, it is written with {@link TaskIO#writeTextAtomically(TaskList, File)},
+ * so the file is never left half-written.
+ * Saves of a file requested while the previous one is written are coalesced: only the latest snapshot is written.
+ * Autosave writes the list after it has not changed for the autosave delay.
+ * In journal mode the journal is compacted into the file on the same thread, the list keeps
+ * appending its changes to the journal meanwhile.
+ * Files in the format of {@link ua.edu.sumdu.j2se.volyk.tasks.models.MappedTaskList} are saved by patches
+ * with the changes of the list, which are written in order and are not coalesced.
+ */
+public class SaveService {
+    private static final Logger log = Logger.getLogger(SaveService.class);
+    /**
+     * Time to wait for unfinished saves when the service is stopped
+     */
+    private static final long STOP_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Saver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /**
+     * Latest not started save of each file
+     */
+    private final ConcurrentMap<File, Request> pending = new ConcurrentHashMap<>();
+    private long autosaveDelay;
+    private ScheduledFuture<?> autosave;
+    private Request autosaveRequest;
+
+    /**
+     * Receiver of the results of saves. It is called on the thread of the service.
+     */
+    public interface Listener {
+        /**
+         * Called when the list is saved.
+         *
+         * @param tasks saved list, {@code null} for a patch
+         * @param file  file where the list is saved
+         */
+        void saved(TaskList tasks, File file);
+
+        /**
+         * Called when the list can't be saved.
+         *
+         * @param tasks list which is not saved, {@code null} for a patch
+         * @param file  file where the list had to be saved
+         * @param e     cause of the failure
+         */
+        void failed(TaskList tasks, File file, IOException e);
+    }
+
+    /**
+     * Sets the time after the last change when autosave writes the list.
+     *
+     * @param autosaveDelay delay in milliseconds, 0 turns autosave off
+     */
+    public synchronized void setAutosaveDelay(long autosaveDelay) {
+        if (autosaveDelay < 0) {
+            throw new IllegalArgumentException("Entered value: autosaveDelay=" + autosaveDelay + " - not valid. Has to be >= 0.");
+        }
+        this.autosaveDelay = autosaveDelay;
+    }
+
+    /**
+     * Returns whether autosave is on.
+     *
+     * @return {@code true} if autosave is on
+     */
+    public synchronized boolean isAutosave() {
+        return autosaveDelay > 0;
+    }
+
+    /**
+     * Saves the list in background. A planned autosave is replaced by this save.
+     *
+     * @param tasks    immutable snapshot of the list
+     * @param file     file where the list is saved
+     * @param listener receiver of the result
+     */
+    public synchronized void save(TaskList tasks, File file, Listener listener) {
+        cancelAutosave();
+        submit(new Request(tasks, file, listener));
+    }
+
+    /**
+     * Compacts the journal into its file in background. The changes appended to the journal after the call
+     * are moved to the new journal. A planned autosave is replaced by the compaction.
+     *
+     * @param journal  journal of the file
+     * @param tasks    immutable snapshot of the list with all the changes appended to the journal so far
+     * @param listener receiver of the result
+     */
+    public synchronized void compact(TaskJournal journal, TaskList tasks, Listener listener) {
+        cancelAutosave();
+        submit(new Request(tasks, journal.getFile(), listener, journal, journal.getPosition()));
+    }
+
+    /**
+     * Writes the patch of a list to its file in background. Each patch holds the changes since the previous one,
+     * so patches are written in the order of the calls, without coalescing. If a patch fails, the following ones
+     * taken before the failure is handled fail as well, as the file doesn't match them.
+     *
+     * @param patch    patch taken by {@link ua.edu.sumdu.j2se.volyk.tasks.models.ArrayTaskList#takeMappedPatch()}
+     * @param file     file of the list
+     * @param listener receiver of the result
+     */
+    public void savePatch(final MappedPatch patch, final File file, final Listener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TaskIO.writeMapped(patch, file);
+                    log.debug(patch.getRecordCount() + " records are written to file: " + file.getPath());
+                    listener.saved(null, file);
+                } catch (IOException e) {
+                    listener.failed(null, file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Plans saving the changed list after the autosave delay. The plan is moved if the list changes again earlier.
+     * Does nothing if autosave is off.
+     *
+     * @param tasks    immutable snapshot of the list
+     * @param file     file where the list is saved
+     * @param listener receiver of the result
+     */
+    public synchronized void autosave(TaskList tasks, File file, Listener listener) {
+        if (autosaveDelay > 0) {
+            cancelAutosave();
+            final Request request = new Request(tasks, file, listener);
+            autosaveRequest = request;
+            autosave = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    startAutosave(request);
+                }
+            }, autosaveDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the planned autosave at once and waits until all saves are written. The service can't be used afterwards.
+     */
+    public void stop() {
+        synchronized (this) {
+            Request request = autosaveRequest;
+            if (autosave != null && autosave.cancel(false)) {
+                submit(request);
+            }
+            autosave = null;
+            autosaveRequest = null;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Saving is not finished in " + STOP_TIMEOUT + " ms");
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for saving to finish");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submits the planned autosave, unless it has been replaced or cancelled meanwhile
+     */
+    private synchronized void startAutosave(Request request) {
+        if (autosaveRequest == request) {
+            autosave = null;
+            autosaveRequest = null;
+            submit(request);
+        }
+    }
+
+    private void cancelAutosave() {
+        if (autosave != null) {
+            autosave.cancel(false);
+            autosave = null;
+            autosaveRequest = null;
+        }
+    }
+
+    /**
+     * Makes the request the pending one for its file, the write is submitted only if there was no pending request
+     */
+    private void submit(Request request) {
+        final File file = request.file;
+        if (pending.put(file, request) == null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Request latest = pending.remove(file);
+                    if (latest != null) {
+                        write(latest);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void write(Request request) {
+        try {
+            if (request.journal != null) {
+                request.journal.compact(request.tasks, request.position);
+            } else {
+                TaskIO.writeTextAtomically(request.tasks, request.file);
+            }
+            log.debug("List is written to file: " + request.file.getPath());
+            request.listener.saved(request.tasks, request.file);
+        } catch (IOException e) {
+            request.listener.failed(request.tasks, request.file, e);
+        }
+    }
+
+    /**
+     * Snapshot of the list to be saved in a file
+     */
+    private static class Request {
+        private final TaskList tasks;
+        private final File file;
+        private final Listener listener;
+        /**
+         * Journal to be compacted into the file, {@code null} if the file is written directly
+         */
+        private final TaskJournal journal;
+        /**
+         * Position of the journal at which the snapshot was taken
+         */
+        private final long position;
+
+        private Request(TaskList tasks, File file, Listener listener) {
+            this(tasks, file, listener, null, 0);
+        }
+
+        private Request(TaskList tasks, File file, Listener listener, TaskJournal journal, long position) {
+            this.tasks = tasks;
+            this.file = file;
+            this.listener = listener;
+            this.journal = journal;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import org.apache.log4j.Logger;
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a notification sink from a bounded lock-free queue of batches on a thread of its own.
+ * The scheduler only puts batches into the queue; what happens when the queue is full
+ * is defined by the {@link OverflowPolicy}.
+ * Under the coalesce policy an overflowing batch is merged into the last batch of the queue, so the batches
+ * are still delivered in the order they were offered. A merged batch holds each task once and keeps
+ * at most {@link #MAX_COALESCED} of the latest tasks.
+ */
+class SinkDispatcher {
+    private static final Logger log = Logger.getLogger(SinkDispatcher.class);
+    private static final long BLOCK_PAUSE = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * Maximum number of tasks in a batch with merged overflowing batches
+     */
+    static final int MAX_COALESCED = 1000;
+    private final NotificationSink sink;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Queue<Batch> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    /**
+     * Last batch put into the queue under the coalesce policy, it's changed only while holding the dispatcher lock
+     */
+    private Batch last;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread thread;
+    private volatile boolean stopping;
+
+    /**
+     * Creates dispatcher for the sink.
+     *
+     * @param sink     notification sink
+     * @param capacity maximum number of batches in the queue
+     * @param policy   policy for a full queue
+     */
+    SinkDispatcher(NotificationSink sink, int capacity, OverflowPolicy policy) {
+        if (sink == null || policy == null) {
+            throw new IllegalArgumentException("Sink and overflow policy can't be null.");
+        } else if (capacity <= 0) {
+            throw new IllegalArgumentException("Entered value: capacity=" + capacity + " - not valid. Has to be > 0.");
+        }
+        this.sink = sink;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Starts the thread of the dispatcher
+     */
+    void start() {
+        stopping = false;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "Notifications-" + sink.getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Delivers the batches remaining in the queue, closes the sink and waits for the thread to finish.
+     * The thread is interrupted, so that a sink waiting for the stopping thread doesn't block it.
+     * The dispatcher is stopped even if the wait is interrupted, the thread then finishes on its own.
+     */
+    void stop() throws InterruptedException {
+        Thread stopped = thread;
+        if (stopped != null) {
+            stopping = true;
+            stopped.interrupt();
+            thread = null;
+            stopped.join();
+        }
+    }
+
+    /**
+     * Puts the batch into the queue of the sink
+     *
+     * @param batch tasks to be notified
+     */
+    void offer(List<Task> batch) {
+        if (policy == OverflowPolicy.coalesce) {
+            synchronized (this) {
+                enqueue(batch);
+            }
+        } else {
+            enqueue(batch);
+        }
+        LockSupport.unpark(thread);
+    }
+
+    private void enqueue(List<Task> tasks) {
+        while (true) {
+            int current = size.get();
+            if (current < capacity) {
+                if (size.compareAndSet(current, current + 1)) {
+                    Batch batch = new Batch(tasks);
+                    queue.add(batch);
+                    if (policy == OverflowPolicy.coalesce) {
+                        last = batch;
+                    }
+                    return;
+                }
+            } else if (policy == OverflowPolicy.dropOldest) {
+                if (queue.poll() != null) {
+                    dropped.incrementAndGet();
+                    queue.add(new Batch(tasks));
+                    return;
+                }
+            } else if (policy == OverflowPolicy.coalesce) {
+                if (last != null && last.merge(tasks)) {
+                    return;
+                }
+                // the last batch is being taken by the dispatcher, so the queue has room for the batch
+                Thread.yield();
+            } else if (Thread.currentThread().isInterrupted() || thread == null) {
+                dropped.incrementAndGet();
+                return;
+            } else {
+                LockSupport.parkNanos(BLOCK_PAUSE);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of batches dropped because the queue was full.
+     *
+     * @return the number of dropped batches
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Body of the dispatcher thread
+     */
+    private void dispatch() {
+        while (true) {
+            Batch batch = queue.poll();
+            if (batch != null) {
+                List<Task> tasks = batch.take();
+                size.decrementAndGet();
+                if (batch.evicted > 0) {
+                    log.warn(batch.evicted + " coalesced notifications were dropped for sink " + sink.getClass().getName());
+                }
+                deliver(Collections.unmodifiableList(tasks));
+            } else if (stopping) {
+                break;
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            log.error("Can't close notification sink " + sink.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Passes the batch to the sink. Failures of the sink are logged, so that it receives the following batches.
+     */
+    private void deliver(List<Task> batch) {
+        try {
+            sink.deliver(batch);
+        } catch (IOException | RuntimeException e) {
+            log.error("Notification sink " + sink.getClass().getName() + " failed to deliver " + batch.size() + " notifications", e);
+        }
+    }
+
+    /**
+     * Batch in the queue of the sink. Overflowing batches may be merged into it until the dispatcher takes it.
+     */
+    private static class Batch {
+        private final List<Task> tasks;
+        /**
+         * Tasks of the batch and the merged batches, {@code null} if nothing is merged
+         */
+        private Set<Task> merged;
+        /**
+         * Number of the oldest merged tasks removed to keep the batch within the limit
+         */
+        private int evicted;
+        private boolean taken;
+
+        Batch(List<Task> tasks) {
+            this.tasks = tasks;
+        }
+
+        /**
+         * Merges the tasks into the batch, unless it is taken by the dispatcher
+         *
+         * @return {@code false} if the batch is already taken
+         */
+        synchronized boolean merge(List<Task> overflowing) {
+            if (taken) {
+                return false;
+            }
+            if (merged == null) {
+                merged = new LinkedHashSet<>(tasks);
+            }
+            for (Task task : overflowing) {
+                // re-adding moves a task to the end, so the oldest tasks are evicted first
+                merged.remove(task);
+                merged.add(task);
+                if (merged.size() > MAX_COALESCED) {
+                    Iterator<Task> oldest = merged.iterator();
+                    oldest.next();
+                    oldest.remove();
+                    evicted++;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Takes the batch for delivery, nothing can be merged into it afterwards
+         *
+         * @return tasks of the batch
+         */
+        synchronized List<Task> take() {
+            taken = true;
+            return merged == null ? tasks : new ArrayList<>(merged);
+        }
+    }
+}
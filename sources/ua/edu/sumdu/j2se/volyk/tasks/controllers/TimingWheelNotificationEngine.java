@@ -0,0 +1,234 @@
+package ua.edu.sumdu.j2se.volyk.tasks.controllers;
+
+import ua.edu.sumdu.j2se.volyk.tasks.models.Task;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Notification engine based on a hierarchical timing wheel with a resolution of one second.
+ * There are wheels of seconds, minutes, hours and days; a notification is put into the slot
+ * of the finest wheel that covers its time. When a wheel turns over, the next slot of the coarser
+ * wheel is cascaded into the finer ones, so a notification moves towards the seconds wheel as
+ * its time approaches. Planning, cancelling and firing a notification take O(1) time.
+ * Notifications more than {@value #DAYS} days ahead wait in an overflow list,
+ * which is checked once a day.
+ */
+public class TimingWheelNotificationEngine implements NotificationEngine {
+    private static final long TICK = 1000;
+    private static final int SECONDS = 60;
+    private static final int MINUTES = 60;
+    private static final int HOURS = 24;
+    private static final int DAYS = 365;
+    private static final long TICKS_IN_MINUTE = SECONDS;
+    private static final long TICKS_IN_HOUR = TICKS_IN_MINUTE * MINUTES;
+    private static final long TICKS_IN_DAY = TICKS_IN_HOUR * HOURS;
+
+    private final Slot[] seconds = createWheel(SECONDS);
+    private final Slot[] minutes = createWheel(MINUTES);
+    private final Slot[] hours = createWheel(HOURS);
+    private final Slot[] days = createWheel(DAYS);
+    private final Slot overdue = new Slot();
+    private final Slot overflow = new Slot();
+    private final Map<Task, Entry> entries = new IdentityHashMap<>();
+    private long currentTick;
+
+    /**
+     * Planned notification of a task, linked into the list of its slot
+     */
+    private static class Entry {
+        private final Task task;
+        private final long time;
+        private final long tick;
+        private Slot slot;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(Task task, long time) {
+            this.task = task;
+            this.time = time;
+            this.tick = (time + TICK - 1) / TICK;
+        }
+    }
+
+    /**
+     * Doubly linked list of notifications in one slot of a wheel
+     */
+    private static class Slot {
+        private Entry head;
+
+        private void add(Entry entry) {
+            entry.slot = this;
+            entry.prev = null;
+            entry.next = head;
+            if (head != null) {
+                head.prev = entry;
+            }
+            head = entry;
+        }
+
+        private void remove(Entry entry) {
+            if (entry.prev == null) {
+                head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.prev = entry.prev;
+            }
+            entry.slot = null;
+        }
+
+        private Entry takeAll() {
+            Entry all = head;
+            head = null;
+            return all;
+        }
+    }
+
+    /**
+     * Creates timing wheels which start at the specified time.
+     *
+     * @param now current time in milliseconds
+     */
+    public TimingWheelNotificationEngine(long now) {
+        currentTick = now / TICK;
+    }
+
+    private static Slot[] createWheel(int size) {
+        Slot[] wheel = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Slot();
+        }
+        return wheel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void schedule(Task task, long time) {
+        cancel(task);
+        Entry entry = new Entry(task, time);
+        entries.put(task, entry);
+        place(entry);
+    }
+
+    /**
+     * Puts the notification into the slot of the finest wheel which covers its time
+     */
+    private void place(Entry entry) {
+        long delta = entry.tick - currentTick;
+        if (delta <= 0) {
+            overdue.add(entry);
+        } else if (delta < TICKS_IN_MINUTE) {
+            seconds[(int) (entry.tick % SECONDS)].add(entry);
+        } else if (delta < TICKS_IN_HOUR) {
+            minutes[(int) (entry.tick / TICKS_IN_MINUTE % MINUTES)].add(entry);
+        } else if (delta < TICKS_IN_DAY) {
+            hours[(int) (entry.tick / TICKS_IN_HOUR % HOURS)].add(entry);
+        } else if (delta < TICKS_IN_DAY * DAYS) {
+            days[(int) (entry.tick / TICKS_IN_DAY % DAYS)].add(entry);
+        } else {
+            overflow.add(entry);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(Task task) {
+        Entry entry = entries.remove(task);
+        if (entry != null) {
+            entry.slot.remove(entry);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The wheels are turned second by second up to the specified time.
+     */
+    @Override
+    public void pollDue(long now, ObjLongConsumer<Task> action) {
+        List<Entry> due = new ArrayList<>();
+        take(overdue, due);
+        long targetTick = now / TICK;
+        while (currentTick < targetTick && !entries.isEmpty()) {
+            currentTick++;
+            if (currentTick % TICKS_IN_DAY == 0) {
+                cascade(overflow);
+                cascade(days[(int) (currentTick / TICKS_IN_DAY % DAYS)]);
+            }
+            if (currentTick % TICKS_IN_HOUR == 0) {
+                cascade(hours[(int) (currentTick / TICKS_IN_HOUR % HOURS)]);
+            }
+            if (currentTick % TICKS_IN_MINUTE == 0) {
+                cascade(minutes[(int) (currentTick / TICKS_IN_MINUTE % MINUTES)]);
+            }
+            take(seconds[(int) (currentTick % SECONDS)], due);
+            take(overdue, due);
+        }
+        currentTick = Math.max(currentTick, targetTick);
+        for (Entry entry : due) {
+            action.accept(entry.task, entry.time);
+        }
+    }
+
+    /**
+     * Moves notifications of the slot to the finer wheels
+     */
+    private void cascade(Slot slot) {
+        Entry entry = slot.takeAll();
+        while (entry != null) {
+            Entry next = entry.next;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    /**
+     * Removes all notifications of the slot from the plan and adds them to the list of due ones
+     */
+    private void take(Slot slot, List<Entry> due) {
+        Entry entry = slot.takeAll();
+        while (entry != null) {
+            entries.remove(entry.task);
+            entry.slot = null;
+            due.add(entry);
+            entry = entry.next;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returns the time of the nearest non-empty slot of the seconds wheel
+     * or, if there is none, the time of the next turn of the minutes wheel.
+     */
+    @Override
+    public long nextTime() {
+        if (entries.isEmpty()) {
+            return -1;
+        } else if (overdue.head != null) {
+            return currentTick * TICK;
+        }
+        long nextMinute = (currentTick / TICKS_IN_MINUTE + 1) * TICKS_IN_MINUTE;
+        for (long tick = currentTick + 1; tick < nextMinute; tick++) {
+            if (seconds[(int) (tick % SECONDS)].head != null) {
+                return tick * TICK;
+            }
+        }
+        return nextMinute * TICK;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return entries.size();
+    }
+}
@@ -1,21 +1,97 @@
 package ua.edu.sumdu.j2se.volyk.tasks.models;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 
 /**
  * The ArrayTaskList class stores the task list in an array.
+ * Optionally the list keeps a hash index from tasks to their positions, which makes
+ * {@link #indexOf(Task)}, {@link #contains(Object)} and finding the task to be removed
+ * take constant expected time. The index keeps the position of the first occurrence of each task,
+ * a removal updates the positions of the shifted tasks while the array is shifted, in time linear in their
+ * number like the shift itself, without hashing them again. As with keys of a {@link java.util.HashMap},
+ * tasks must not be changed while they are stored in an indexed list.
+ * Once the list is persisted to a file in the format of {@link MappedTaskList} by {@link #takeMappedPatch()} or read
+ * from it by {@link TaskIO#readMapped(ArrayTaskList, java.io.File)}, the list tracks the slots of its tasks in the file,
+ * so that the next patch rewrites only the slots of the changed tasks. A task changed in place has to be reported
+ * by {@link #markDirty(int)}. Lists which are not persisted this way don't track changes.
+ * Only the tasks in use are serialized, each one in the compact format of {@link Task} with equal titles
+ * written once. Tasks shared with other objects of the stream are deserialized as separate copies.
+ * Lists serialized with the default format of the former versions are read as well.
  */
 public class ArrayTaskList extends TaskList {
+    private static final long serialVersionUID = 4665178120145805879L;
+    /**
+     * The array is not serialized by default, the tasks are written by {@link #writeObject(ObjectOutputStream)}
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("indexed", boolean.class)
+    };
     private static final int INIT_SIZE = 20;
     private static final int EXTEND = 15;
     private Task[] list;
+    private boolean indexed;
+    /**
+     * Index entry of each task in the list, built on the first use
+     */
+    private transient Map<Task, Position> positions;
+    /**
+     * Index entry of the task at each position, if it is the first occurrence of the task, otherwise {@code null}
+     */
+    private transient Position[] firsts;
+    /**
+     * Slots of the tasks in the file the list was persisted to, {@code null} if the list doesn't track changes
+     */
+    private transient MappedSlots mappedSlots;
+
+    /**
+     * Position of the first occurrence of a task and the number of its occurrences
+     */
+    private static class Position {
+        private int index;
+        private int count = 1;
+
+        private Position(int index) {
+            this.index = index;
+        }
+    }
 
     /**
      * Constructs an empty ArrayTaskList with an initial capacity.
      */
     public ArrayTaskList() {
+        this(false);
+    }
+
+    /**
+     * Constructs an empty ArrayTaskList with an initial capacity.
+     *
+     * @param indexed whether the list keeps a hash index of its tasks
+     */
+    public ArrayTaskList(boolean indexed) {
         list = new Task[INIT_SIZE];
+        this.indexed = indexed;
+    }
+
+    /**
+     * Returns {@code true} if the list keeps a hash index of its tasks.
+     *
+     * @return {@code true} if the list keeps a hash index of its tasks
+     */
+    public boolean isIndexed() {
+        return indexed;
     }
 
     /**
@@ -26,17 +102,40 @@ public class ArrayTaskList extends TaskList {
             if (size() == list.length) {
                 resize(size() + EXTEND);
             }
-            list[size++] = task;
+            if (mappedSlots != null) {
+                mappedSlots.added();
+            }
+            list[size] = task;
+            if (indexed) {
+                positions();
+                addToIndex(size);
+            }
+            size++;
         } else {
             throw new IllegalArgumentException("Can't add null task.");
         }
-        return false;
+        return true;
+    }
+
+    /**
+     * Increases the capacity of the list, if necessary, so that it can hold
+     * at least the specified number of tasks without growing.
+     *
+     * @param minCapacity the desired minimum capacity
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > list.length) {
+            resize(minCapacity);
+        }
     }
 
     private void resize(int newSize) {
         Task[] newList = new Task[newSize];
         System.arraycopy(list, 0, newList, 0, size);
         list = newList;
+        if (firsts != null) {
+            firsts = Arrays.copyOf(firsts, newSize);
+        }
     }
 
     /**
@@ -44,26 +143,149 @@ public class ArrayTaskList extends TaskList {
      */
     public boolean remove(Task task) {
         if (task != null) {
-            boolean wasTaskInList = false;
-            for (int i = 0; i < size(); i++) {
-                if (list[i].equals(task)) {
-                    wasTaskInList = true;
-                    for (int j = i; j < size() - 1; j++) {
-                        list[j] = list[j + 1];
-                    }
-                    list[--size] = null;
-                    break;
-                }
+            int index = indexOf(task);
+            if (index >= 0) {
+                removeAt(index);
             }
             if ((list.length > INIT_SIZE) && (size() < list.length / 4)) {
                 resize((int) list.length / 2);
             }
-            return wasTaskInList;
+            return index >= 0;
         } else {
             throw new IllegalArgumentException("Can't remove null task.");
         }
     }
 
+    /**
+     * Removes the task at the specified position, shifting the following tasks to the left
+     *
+     * @param index position of the task to be removed
+     */
+    private void removeAt(int index) {
+        Task task = list[index];
+        int moved = size() - index - 1;
+        System.arraycopy(list, index + 1, list, index, moved);
+        list[--size] = null;
+        if (mappedSlots != null) {
+            mappedSlots.removed(index);
+        }
+        if (positions != null) {
+            Position removed = firsts[index];
+            System.arraycopy(firsts, index + 1, firsts, index, moved);
+            firsts[size] = null;
+            Position successor = null;
+            if (removed == null) {
+                positions.get(task).count--;
+            } else if (--removed.count == 0) {
+                positions.remove(task);
+            } else {
+                successor = removed;
+            }
+            for (int i = index; i < size; i++) {
+                if (firsts[i] != null) {
+                    firsts[i].index = i;
+                } else if (successor != null && list[i].equals(task)) {
+                    successor.index = i;
+                    firsts[i] = successor;
+                    successor = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the list is indexed, the position is found by the hash index.
+     */
+    public int indexOf(Task task) {
+        if (!indexed) {
+            for (int i = 0; i < size(); i++) {
+                if (list[i].equals(task)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        Position position = positions().get(task);
+        return position != null ? position.index : -1;
+    }
+
+    /**
+     * Adds the task at the position to the index, which already contains the tasks before it
+     */
+    private void addToIndex(int index) {
+        Position position = positions.get(list[index]);
+        if (position == null) {
+            position = new Position(index);
+            positions.put(list[index], position);
+            firsts[index] = position;
+        } else {
+            position.count++;
+        }
+    }
+
+    /**
+     * Marks the task at the position, which was changed in place, as changed since the list was persisted.
+     * Does nothing if the list doesn't track changes.
+     *
+     * @param index position of the changed task
+     */
+    public void markDirty(int index) {
+        if (index >= 0 && index < size()) {
+            if (mappedSlots != null) {
+                mappedSlots.changed(index);
+            }
+        } else {
+            throw new IndexOutOfBoundsException("Index out of range.");
+        }
+    }
+
+    /**
+     * Returns the patch of the file of the list in the format of {@link MappedTaskList} with the changes since
+     * the previous patch, which is written by {@link TaskIO#writeMapped(MappedPatch, java.io.File)}.
+     * The first patch of the list is a full one and starts tracking the changes, unless the list was read
+     * by {@link TaskIO#readMapped(ArrayTaskList, java.io.File)}. A full patch is also taken when the file runs out of
+     * slots; it leaves a quarter of the slots free for the following changes.
+     *
+     * @return the patch of the file of the list
+     */
+    public MappedPatch takeMappedPatch() {
+        MappedPatch patch = mappedSlots != null ? mappedSlots.takePatch(list) : null;
+        if (patch == null) {
+            Task[] tasks = Arrays.copyOf(list, size());
+            int capacity = size() + size() / 4 + 16;
+            patch = new MappedPatch(tasks, capacity);
+            mappedSlots = MappedSlots.written(tasks, capacity);
+        }
+        return patch;
+    }
+
+    /**
+     * Stops tracking the changes, so that the next patch is a full one.
+     * Has to be called when a patch fails to be written or the list is persisted to another file.
+     */
+    public void forgetMappedFile() {
+        mappedSlots = null;
+    }
+
+    /**
+     * Starts tracking the changes of the list, which was read from a file in the format of {@link MappedTaskList}
+     */
+    void trackMappedFile(MappedSlots slots) {
+        mappedSlots = slots;
+    }
+
+    private Map<Task, Position> positions() {
+        if (positions == null) {
+            positions = new HashMap<>();
+            firsts = new Position[list.length];
+            for (int i = 0; i < size(); i++) {
+                addToIndex(i);
+            }
+        }
+        return positions;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -76,7 +298,7 @@ public class ArrayTaskList extends TaskList {
     }
 
     protected TaskList createInstance() {
-        return new ArrayTaskList();
+        return new ArrayTaskList(indexed);
     }
 
 
@@ -102,23 +324,64 @@ public class ArrayTaskList extends TaskList {
                 if (currentIndex < 0) {
                     throw new IllegalStateException("Can't remove.");
                 } else {
-                    for (int j = currentIndex; j < size() - 1; j++) {
-                        list[j] = list[j + 1];
-                    }
-                    currentIndex--;
-                    list[--size] = null;
+                    removeAt(currentIndex--);
                 }
             }
 
         };
     }
 
+    /**
+     * Returns a spliterator over the elements in this list, which splits the
+     * array by index ranges and reports {@link Spliterator#SIZED} and {@link Spliterator#SUBSIZED},
+     * so that parallel streams over the list are split evenly.
+     *
+     * @return a spliterator over the elements in this list
+     */
+    public Spliterator<Task> spliterator() {
+        return Spliterators.spliterator(list, 0, size(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
     /**
      * {@inheritDoc}
      */
     public ArrayTaskList clone() {
         ArrayTaskList clone = (ArrayTaskList) super.clone();
         clone.list = list.clone();
+        clone.positions = null;
+        clone.firsts = null;
+        clone.mappedSlots = null;
         return clone;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        Map<String, Integer> titles = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            list[i].writeCompact(out, titles);
+        }
+    }
+
+    /**
+     * Reads the tasks in the compact format or the array in the default format of the former versions
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        indexed = fields.get("indexed", false);
+        if (size < 0) {
+            throw new InvalidObjectException("Entered value: size=" + size + " - not valid. Has to be >= 0.");
+        }
+        if (fields.getObjectStreamClass().getField("list") != null) {
+            list = (Task[]) fields.get("list", null);
+            if (list == null || list.length < size) {
+                throw new InvalidObjectException("Array of the list is shorter than its size.");
+            }
+        } else {
+            list = new Task[Math.max(size, INIT_SIZE)];
+            List<String> titles = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                list[i] = Task.readCompact(in, titles);
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,411 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * B+tree of fixed-size entries in the pages of a {@link PageFile}, used by {@link BTreeTaskList}.
+ * An entry starts with a key of two longs, which is unique in the tree, followed by a payload.
+ * Leaves hold the entries in the order of their keys and are linked for scanning.
+ * An internal node holds, for each child, the least key which may be in the child (the first one is not used),
+ * the page of the child and the number of entries in its subtree, so entries can be found by their rank.
+ * A node has a header: type (byte), number of entries (short) and the next leaf (int).
+ * Nodes are split when they are full, but not merged when entries are deleted: an emptied leaf stays in the tree.
+ * The page of the root is kept in page 0 of the file at the specified offset.
+ */
+class BTree {
+    /**
+     * Size of the key at the start of an entry
+     */
+    static final int KEY_SIZE = 16;
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+    private static final int NODE_HEADER = 8;
+    private static final int INTERNAL_ENTRY = KEY_SIZE + 8;
+    private static final int MAX_HEIGHT = 32;
+
+    private final PageFile file;
+    private final int rootOffset;
+    private final int entrySize;
+    private final int leafCapacity;
+    private final int internalCapacity;
+
+    /**
+     * Creates tree in the file.
+     *
+     * @param file       file of pages
+     * @param rootOffset offset in page 0 of the page of the root
+     * @param entrySize  size of a leaf entry including the key
+     */
+    BTree(PageFile file, int rootOffset, int entrySize) {
+        this.file = file;
+        this.rootOffset = rootOffset;
+        this.entrySize = entrySize;
+        leafCapacity = (PageFile.PAGE_SIZE - NODE_HEADER) / entrySize;
+        internalCapacity = (PageFile.PAGE_SIZE - NODE_HEADER) / INTERNAL_ENTRY;
+    }
+
+    /**
+     * Allocates an empty root for a new tree
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void create() throws IOException {
+        int root = file.allocate();
+        file.write(root).put(0, LEAF);
+        file.write(0).putInt(rootOffset, root);
+    }
+
+    /**
+     * Inserts the entry, splitting full nodes on its path.
+     *
+     * @param entry entry with the key, which is not in the tree yet
+     * @throws IOException if an I/O error occurs
+     */
+    void insert(byte[] entry) throws IOException {
+        ByteBuffer key = ByteBuffer.wrap(entry);
+        long a = key.getLong(0);
+        long b = key.getLong(8);
+        int[] pages = new int[MAX_HEIGHT];
+        int[] slots = new int[MAX_HEIGHT];
+        int depth = 0;
+        int page = root();
+        ByteBuffer node = file.read(page);
+        while (node.get(0) == INTERNAL) {
+            int slot = childSlot(node, a, b);
+            pages[depth] = page;
+            slots[depth] = slot;
+            depth++;
+            page = node.getInt(internalOffset(slot) + KEY_SIZE);
+            node = file.read(page);
+        }
+        int split = insertEntry(page, lowerBound(node, a, b), entry, entrySize, leafCapacity);
+        int child = page;
+        for (int d = depth - 1; d >= 0; d--) {
+            ByteBuffer parent = file.write(pages[d]);
+            int offset = internalOffset(slots[d]) + KEY_SIZE + 4;
+            if (split == 0) {
+                parent.putInt(offset, parent.getInt(offset) + 1);
+            } else {
+                parent.putInt(offset, total(child));
+                split = insertEntry(pages[d], slots[d] + 1, separator(split), INTERNAL_ENTRY, internalCapacity);
+            }
+            child = pages[d];
+        }
+        if (split != 0) {
+            int root = file.allocate();
+            ByteBuffer rootNode = file.write(root);
+            rootNode.put(0, INTERNAL);
+            rootNode.putShort(2, (short) 2);
+            byte[] left = separator(child);
+            rootNode.position(internalOffset(0));
+            rootNode.put(left);
+            rootNode.put(separator(split));
+            rootNode.clear();
+            file.write(0).putInt(rootOffset, root);
+        }
+    }
+
+    /**
+     * Deletes the entry with the key.
+     *
+     * @param a first part of the key
+     * @param b second part of the key
+     * @return {@code true} if the entry was in the tree
+     * @throws IOException if an I/O error occurs
+     */
+    boolean delete(long a, long b) throws IOException {
+        int[] pages = new int[MAX_HEIGHT];
+        int[] slots = new int[MAX_HEIGHT];
+        int depth = 0;
+        int page = root();
+        ByteBuffer node = file.read(page);
+        while (node.get(0) == INTERNAL) {
+            int slot = childSlot(node, a, b);
+            pages[depth] = page;
+            slots[depth] = slot;
+            depth++;
+            page = node.getInt(internalOffset(slot) + KEY_SIZE);
+            node = file.read(page);
+        }
+        int position = lowerBound(node, a, b);
+        int count = count(node);
+        if (position == count || compare(node, leafOffset(position), a, b) != 0) {
+            return false;
+        }
+        node = file.write(page);
+        byte[] array = node.array();
+        System.arraycopy(array, leafOffset(position + 1), array, leafOffset(position), (count - position - 1) * entrySize);
+        node.putShort(2, (short) (count - 1));
+        for (int d = depth - 1; d >= 0; d--) {
+            ByteBuffer parent = file.write(pages[d]);
+            int offset = internalOffset(slots[d]) + KEY_SIZE + 4;
+            parent.putInt(offset, parent.getInt(offset) - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the entry with the key.
+     *
+     * @param a     first part of the key
+     * @param b     second part of the key
+     * @param entry array where the entry is copied
+     * @return {@code true} if the entry is found
+     * @throws IOException if an I/O error occurs
+     */
+    boolean find(long a, long b, byte[] entry) throws IOException {
+        Cursor cursor = seek(a, b);
+        return cursor.next(entry) && compare(ByteBuffer.wrap(entry), 0, a, b) == 0;
+    }
+
+    /**
+     * Returns the number of entries with keys less than the key.
+     *
+     * @param a first part of the key
+     * @param b second part of the key
+     * @return the rank of the key
+     * @throws IOException if an I/O error occurs
+     */
+    int rank(long a, long b) throws IOException {
+        int rank = 0;
+        ByteBuffer node = file.read(root());
+        while (node.get(0) == INTERNAL) {
+            int slot = childSlot(node, a, b);
+            for (int i = 0; i < slot; i++) {
+                rank += node.getInt(internalOffset(i) + KEY_SIZE + 4);
+            }
+            node = file.read(node.getInt(internalOffset(slot) + KEY_SIZE));
+        }
+        return rank + lowerBound(node, a, b);
+    }
+
+    /**
+     * Copies the entry with the specified rank.
+     *
+     * @param rank  number of entries with less keys
+     * @param entry array where the entry is copied
+     * @throws IOException if an I/O error occurs
+     */
+    void get(int rank, byte[] entry) throws IOException {
+        ByteBuffer node = file.read(root());
+        while (node.get(0) == INTERNAL) {
+            int count = count(node);
+            int slot = 0;
+            int subtree = node.getInt(internalOffset(0) + KEY_SIZE + 4);
+            while (rank >= subtree && slot < count - 1) {
+                rank -= subtree;
+                slot++;
+                subtree = node.getInt(internalOffset(slot) + KEY_SIZE + 4);
+            }
+            node = file.read(node.getInt(internalOffset(slot) + KEY_SIZE));
+        }
+        if (rank >= count(node)) {
+            throw new IOException("Tree is inconsistent: entry " + rank + " is missing.");
+        }
+        System.arraycopy(node.array(), leafOffset(rank), entry, 0, entrySize);
+    }
+
+    /**
+     * Returns the cursor at the first entry with the key not less than the specified one.
+     *
+     * @param a first part of the key
+     * @param b second part of the key
+     * @return cursor over the entries from the key
+     * @throws IOException if an I/O error occurs
+     */
+    Cursor seek(long a, long b) throws IOException {
+        int page = root();
+        ByteBuffer node = file.read(page);
+        while (node.get(0) == INTERNAL) {
+            page = node.getInt(internalOffset(childSlot(node, a, b)) + KEY_SIZE);
+            node = file.read(page);
+        }
+        return new Cursor(page, lowerBound(node, a, b));
+    }
+
+    /**
+     * Frees all pages of the tree and allocates an empty root
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void clear() throws IOException {
+        freeSubtree(root());
+        create();
+    }
+
+    private void freeSubtree(int page) throws IOException {
+        ByteBuffer node = file.read(page);
+        if (node.get(0) == INTERNAL) {
+            int count = count(node);
+            int[] children = new int[count];
+            for (int i = 0; i < count; i++) {
+                children[i] = node.getInt(internalOffset(i) + KEY_SIZE);
+            }
+            for (int child : children) {
+                freeSubtree(child);
+            }
+        }
+        file.free(page);
+    }
+
+    private int root() throws IOException {
+        return file.read(0).getInt(rootOffset);
+    }
+
+    /**
+     * Inserts the entry at the position of the node. A full node is split in halves,
+     * the upper half is moved to a new node
+     *
+     * @return the page of the new node or 0, if the node was not split
+     */
+    private int insertEntry(int page, int position, byte[] entry, int size, int capacity) throws IOException {
+        ByteBuffer node = file.write(page);
+        byte[] array = node.array();
+        int count = count(node);
+        if (count < capacity) {
+            System.arraycopy(array, NODE_HEADER + position * size, array, NODE_HEADER + (position + 1) * size, (count - position) * size);
+            System.arraycopy(entry, 0, array, NODE_HEADER + position * size, size);
+            node.putShort(2, (short) (count + 1));
+            return 0;
+        }
+        byte[] all = new byte[(count + 1) * size];
+        System.arraycopy(array, NODE_HEADER, all, 0, position * size);
+        System.arraycopy(entry, 0, all, position * size, size);
+        System.arraycopy(array, NODE_HEADER + position * size, all, (position + 1) * size, (count - position) * size);
+        int left = (count + 1) / 2;
+        int right = count + 1 - left;
+        int split = file.allocate();
+        ByteBuffer splitNode = file.write(split);
+        splitNode.put(0, node.get(0));
+        splitNode.putShort(2, (short) right);
+        System.arraycopy(all, left * size, splitNode.array(), NODE_HEADER, right * size);
+        System.arraycopy(all, 0, array, NODE_HEADER, left * size);
+        node.putShort(2, (short) left);
+        if (node.get(0) == LEAF) {
+            splitNode.putInt(4, node.getInt(4));
+            node.putInt(4, split);
+        }
+        return split;
+    }
+
+    /**
+     * Creates the entry of an internal node for the child: its first key, page and number of entries
+     */
+    private byte[] separator(int page) throws IOException {
+        ByteBuffer node = file.read(page);
+        ByteBuffer entry = ByteBuffer.allocate(INTERNAL_ENTRY);
+        if (count(node) > 0) {
+            entry.put(node.array(), NODE_HEADER, KEY_SIZE);
+        } else {
+            entry.putLong(Long.MIN_VALUE).putLong(Long.MIN_VALUE);
+        }
+        entry.putInt(page);
+        entry.putInt(total(page));
+        return entry.array();
+    }
+
+    /**
+     * Returns the number of entries in the subtree of the node
+     */
+    private int total(int page) throws IOException {
+        ByteBuffer node = file.read(page);
+        int count = count(node);
+        if (node.get(0) == LEAF) {
+            return count;
+        }
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            total += node.getInt(internalOffset(i) + KEY_SIZE + 4);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the slot of the child, where the key has to be: the last one with the least key not greater than it
+     */
+    private static int childSlot(ByteBuffer node, long a, long b) {
+        int low = 1;
+        int high = count(node) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compare(node, internalOffset(middle), a, b) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Returns the position of the first entry of the leaf with the key not less than the specified one
+     */
+    private int lowerBound(ByteBuffer node, long a, long b) {
+        int low = 0;
+        int high = count(node) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compare(node, leafOffset(middle), a, b) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(ByteBuffer buffer, int offset, long a, long b) {
+        int result = Long.compare(buffer.getLong(offset), a);
+        return result != 0 ? result : Long.compare(buffer.getLong(offset + 8), b);
+    }
+
+    private static int count(ByteBuffer node) {
+        return node.getShort(2) & 0xFFFF;
+    }
+
+    private static int internalOffset(int slot) {
+        return NODE_HEADER + slot * INTERNAL_ENTRY;
+    }
+
+    private int leafOffset(int position) {
+        return NODE_HEADER + position * entrySize;
+    }
+
+    /**
+     * Position in the leaves for reading entries in the order of their keys.
+     * It is valid only until the tree is changed.
+     */
+    class Cursor {
+        private int page;
+        private int position;
+
+        private Cursor(int page, int position) {
+            this.page = page;
+            this.position = position;
+        }
+
+        /**
+         * Copies the entry at the cursor and moves to the next one.
+         *
+         * @param entry array where the entry is copied
+         * @return {@code false} if there are no more entries
+         * @throws IOException if an I/O error occurs
+         */
+        boolean next(byte[] entry) throws IOException {
+            ByteBuffer node = file.read(page);
+            while (position >= count(node)) {
+                int next = node.getInt(4);
+                if (next == 0) {
+                    return false;
+                }
+                page = next;
+                position = 0;
+                node = file.read(page);
+            }
+            System.arraycopy(node.array(), leafOffset(position), entry, 0, entrySize);
+            position++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * The BTreeTaskList class is a task list stored in a file, for lists which don't fit in memory.
+ * Only the pages in use are kept in memory (see {@link PageFile}), each change is atomic and durable:
+ * after a crash the list is recovered to the last completed {@link #add(Task)} or {@link #remove(Task)}.
+ * The tasks are kept in three B+trees (see {@link BTree}):
+ * - Records: the tasks by the sequence number of their addition, which gives the order of the list
+ * and finds a task by its index. A record contains the times, interval, flags and the first
+ * {@value #INLINE_TITLE} bytes of the title in UTF-8, the rest of a longer title is kept in a chain of pages.
+ * - Times: the end time and the number of each task, for searching incoming tasks: a task can't have
+ * a notification after its end time.
+ * - Titles: the hash of the title and the number of each task, for searching a task.
+ * The file has to be closed, otherwise the changes are recovered from the log when it is opened again.
+ */
+public class BTreeTaskList extends TaskList implements Closeable {
+    private static final long serialVersionUID = 7710433284975066187L;
+    /**
+     * Default number of pages kept in memory
+     */
+    public static final int DEFAULT_POOL_PAGES = 256;
+    /**
+     * Number of bytes of the title kept in the record
+     */
+    private static final int INLINE_TITLE = 64;
+    private static final int ACTIVE_FLAG = 1;
+    private static final int REPEATED_FLAG = 2;
+    private static final int START = BTree.KEY_SIZE;
+    private static final int END = START + 8;
+    private static final int INTERVAL = END + 8;
+    private static final int FLAGS = INTERVAL + 4;
+    private static final int TITLE_LENGTH = FLAGS + 1;
+    private static final int OVERFLOW = TITLE_LENGTH + 4;
+    private static final int TITLE = OVERFLOW + 4;
+    private static final int RECORD_SIZE = TITLE + INLINE_TITLE;
+    private static final int RECORDS_ROOT = PageFile.HEADER_SIZE;
+    private static final int TIMES_ROOT = RECORDS_ROOT + 4;
+    private static final int TITLES_ROOT = TIMES_ROOT + 4;
+    private static final int SIZE = TITLES_ROOT + 4;
+    private static final int NEXT_NUMBER = SIZE + 4;
+    /**
+     * Header of an overflow page: the next page of the chain and the number of bytes in this one
+     */
+    private static final int OVERFLOW_HEADER = 8;
+
+    private final transient PageFile file;
+    private final transient BTree records;
+    private final transient BTree times;
+    private final transient BTree titles;
+
+    /**
+     * Opens or creates the store with the default number of pages kept in memory.
+     *
+     * @param file file of the store
+     * @throws IOException if an I/O error occurs or the file is not a task store
+     */
+    public BTreeTaskList(File file) throws IOException {
+        this(file, DEFAULT_POOL_PAGES);
+    }
+
+    /**
+     * Opens or creates the store. Changes which are left in the log after a crash are recovered.
+     *
+     * @param file      file of the store
+     * @param poolPages number of pages kept in memory
+     * @throws IOException if an I/O error occurs or the file is not a task store
+     */
+    public BTreeTaskList(File file, int poolPages) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File can't be null.");
+        }
+        this.file = new PageFile(file, poolPages);
+        records = new BTree(this.file, RECORDS_ROOT, RECORD_SIZE);
+        times = new BTree(this.file, TIMES_ROOT, BTree.KEY_SIZE);
+        titles = new BTree(this.file, TITLES_ROOT, BTree.KEY_SIZE);
+        try {
+            if (this.file.isCreated()) {
+                records.create();
+                times.create();
+                titles.create();
+                this.file.commit();
+            }
+            size = this.file.read(0).getInt(SIZE);
+            this.file.release();
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The change is in the log on the disk, when the method returns.
+     *
+     * @throws UncheckedIOException if an I/O error occurs; the list can't be used until it is opened again
+     */
+    public synchronized boolean add(Task task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Can't add null task.");
+        }
+        try {
+            ByteBuffer header = file.write(0);
+            long number = header.getLong(NEXT_NUMBER);
+            header.putLong(NEXT_NUMBER, number + 1);
+            records.insert(encode(task, number));
+            times.insert(key(task.getEndTime().getTime(), number));
+            titles.insert(key(hash(task.getTitle()), number));
+            file.write(0).putInt(SIZE, size + 1);
+            file.commit();
+        } catch (IOException e) {
+            file.fail();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            file.fail();
+            throw e;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The change is in the log on the disk, when the method returns.
+     *
+     * @throws UncheckedIOException if an I/O error occurs; the list can't be used until it is opened again
+     */
+    public synchronized boolean remove(Task task) {
+        try {
+            byte[] record = find(task);
+            if (record == null) {
+                file.release();
+                return false;
+            }
+            ByteBuffer fields = ByteBuffer.wrap(record);
+            long number = fields.getLong(0);
+            freeOverflow(fields.getInt(OVERFLOW));
+            records.delete(number, 0);
+            times.delete(fields.getLong(END), number);
+            titles.delete(hash(task.getTitle()), number);
+            file.write(0).putInt(SIZE, size - 1);
+            file.commit();
+        } catch (IOException e) {
+            file.fail();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            file.fail();
+            throw e;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes all tasks and frees their pages.
+     *
+     * @throws UncheckedIOException if an I/O error occurs; the list can't be used until it is opened again
+     */
+    @Override
+    public synchronized void clear() {
+        try {
+            byte[] record = new byte[RECORD_SIZE];
+            BTree.Cursor cursor = records.seek(Long.MIN_VALUE, Long.MIN_VALUE);
+            while (cursor.next(record)) {
+                freeOverflow(ByteBuffer.wrap(record).getInt(OVERFLOW));
+            }
+            records.clear();
+            times.clear();
+            titles.clear();
+            file.write(0).putInt(SIZE, 0);
+            file.commit();
+        } catch (IOException e) {
+            file.fail();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            file.fail();
+            throw e;
+        }
+        size = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    public synchronized Task getTask(int index) {
+        if (index >= 0 && index < size()) {
+            try {
+                byte[] record = new byte[RECORD_SIZE];
+                records.get(index, record);
+                return decode(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                file.release();
+            }
+        } else {
+            throw new IndexOutOfBoundsException("Index out of range.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The task is searched by the hash of its title.
+     *
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    public synchronized int indexOf(Task task) {
+        try {
+            byte[] record = find(task);
+            return record == null ? -1 : records.rank(ByteBuffer.wrap(record).getLong(0), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            file.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the tasks which end after {@code from} are read.
+     *
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    public synchronized TaskList incoming(Date from, Date to) {
+        checkRange(from, to);
+        long fromTime = from.getTime();
+        long toTime = to.getTime();
+        Map<Long, Task> found = new TreeMap<>();
+        try {
+            byte[] key = new byte[BTree.KEY_SIZE];
+            byte[] record = new byte[RECORD_SIZE];
+            BTree.Cursor cursor = times.seek(fromTime + 1, Long.MIN_VALUE);
+            while (cursor.next(key)) {
+                long number = ByteBuffer.wrap(key).getLong(8);
+                if (!records.find(number, 0, record)) {
+                    throw new IOException("Tree is inconsistent: task " + number + " is missing.");
+                }
+                if (ByteBuffer.wrap(record).getLong(START) <= toTime) {
+                    Task task = decode(record);
+                    if (isIncoming(task, fromTime, toTime)) {
+                        found.put(number, task);
+                    }
+                }
+                file.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            file.release();
+        }
+        TaskList incomingTasks = createInstance();
+        for (Task task : found.values()) {
+            incomingTasks.add(task);
+        }
+        return incomingTasks;
+    }
+
+    /**
+     * Returns a list in memory for the results of queries
+     */
+    protected TaskList createInstance() {
+        return new ArrayTaskList();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The list must not be changed during the iteration.
+     */
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private final byte[] record = new byte[RECORD_SIZE];
+            private BTree.Cursor cursor;
+            private int returned;
+
+            public boolean hasNext() {
+                return returned < size();
+            }
+
+            public Task next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more elements in the list.");
+                }
+                synchronized (BTreeTaskList.this) {
+                    try {
+                        if (cursor == null) {
+                            cursor = records.seek(Long.MIN_VALUE, Long.MIN_VALUE);
+                        }
+                        if (!cursor.next(record)) {
+                            throw new NoSuchElementException("No more elements in the list.");
+                        }
+                        returned++;
+                        return decode(record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        file.release();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the list in memory, as the file can't be shared.
+     *
+     * @return an {@link ArrayTaskList} with the tasks of this list
+     */
+    public synchronized TaskList clone() {
+        ArrayTaskList copy = new ArrayTaskList();
+        copy.ensureCapacity(size());
+        for (Task task : this) {
+            copy.add(task);
+        }
+        return copy;
+    }
+
+    /**
+     * Makes a checkpoint and closes the file. The list can't be used afterwards.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Serializes the list as a list in memory, as the file can't be serialized
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return clone();
+    }
+
+    /**
+     * Finds the record of the first task in the list equal to the specified one
+     *
+     * @return the record or {@code null}
+     */
+    private byte[] find(Task task) throws IOException {
+        if (task == null) {
+            return null;
+        }
+        long hash = hash(task.getTitle());
+        byte[] key = new byte[BTree.KEY_SIZE];
+        byte[] record = new byte[RECORD_SIZE];
+        BTree.Cursor cursor = titles.seek(hash, Long.MIN_VALUE);
+        while (cursor.next(key)) {
+            ByteBuffer fields = ByteBuffer.wrap(key);
+            if (fields.getLong(0) != hash) {
+                break;
+            }
+            long number = fields.getLong(8);
+            if (!records.find(number, 0, record)) {
+                throw new IOException("Tree is inconsistent: task " + number + " is missing.");
+            }
+            if (decode(record).equals(task)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the record of the task, the part of the title, which doesn't fit in the record,
+     * is written to new overflow pages
+     */
+    private byte[] encode(Task task, long number) throws IOException {
+        byte[] title = task.getTitle().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(number).putLong(0)
+                .putLong(task.getStartTime().getTime())
+                .putLong(task.getEndTime().getTime())
+                .putInt(task.getRepeatInterval())
+                .put((byte) ((task.isActive() ? ACTIVE_FLAG : 0) | (task.isRepeated() ? REPEATED_FLAG : 0)))
+                .putInt(title.length)
+                .putInt(writeOverflow(title))
+                .put(title, 0, Math.min(title.length, INLINE_TITLE));
+        return record.array();
+    }
+
+    private Task decode(byte[] record) throws IOException {
+        ByteBuffer fields = ByteBuffer.wrap(record);
+        byte[] bytes = new byte[fields.getInt(TITLE_LENGTH)];
+        System.arraycopy(record, TITLE, bytes, 0, Math.min(bytes.length, INLINE_TITLE));
+        int offset = INLINE_TITLE;
+        int page = fields.getInt(OVERFLOW);
+        while (page != 0) {
+            ByteBuffer overflow = file.read(page);
+            int length = overflow.getInt(4);
+            if (offset + length > bytes.length) {
+                throw new IOException("Title of task " + fields.getLong(0) + " is longer than its record.");
+            }
+            System.arraycopy(overflow.array(), OVERFLOW_HEADER, bytes, offset, length);
+            offset += length;
+            page = overflow.getInt(0);
+        }
+        if (offset < bytes.length) {
+            throw new IOException("Title of task " + fields.getLong(0) + " is shorter than its record.");
+        }
+        String title = new String(bytes, StandardCharsets.UTF_8);
+        Task task;
+        if ((fields.get(FLAGS) & REPEATED_FLAG) != 0) {
+            task = new Task(title, new Date(fields.getLong(START)), new Date(fields.getLong(END)), fields.getInt(INTERVAL));
+        } else {
+            task = new Task(title, new Date(fields.getLong(START)));
+        }
+        task.setActive((fields.get(FLAGS) & ACTIVE_FLAG) != 0);
+        return task;
+    }
+
+    /**
+     * Writes the bytes of the title after the inline part to a chain of overflow pages
+     *
+     * @return the first page of the chain or 0
+     */
+    private int writeOverflow(byte[] title) throws IOException {
+        int first = 0;
+        int previous = 0;
+        for (int offset = INLINE_TITLE; offset < title.length; ) {
+            int length = Math.min(title.length - offset, PageFile.PAGE_SIZE - OVERFLOW_HEADER);
+            int page = file.allocate();
+            ByteBuffer overflow = file.write(page);
+            overflow.putInt(4, length);
+            System.arraycopy(title, offset, overflow.array(), OVERFLOW_HEADER, length);
+            if (previous == 0) {
+                first = page;
+            } else {
+                file.write(previous).putInt(0, page);
+            }
+            previous = page;
+            offset += length;
+        }
+        return first;
+    }
+
+    private void freeOverflow(int page) throws IOException {
+        while (page != 0) {
+            int next = file.read(page).getInt(0);
+            file.free(page);
+            page = next;
+        }
+    }
+
+    private static byte[] key(long a, long b) {
+        return ByteBuffer.allocate(BTree.KEY_SIZE).putLong(a).putLong(b).array();
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of the title
+     */
+    private static long hash(String title) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < title.length(); i++) {
+            hash ^= title.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
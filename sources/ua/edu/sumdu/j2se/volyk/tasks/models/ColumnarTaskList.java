@@ -0,0 +1,398 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The ColumnarTaskList class stores the task list column by column in primitive arrays:
+ * start and end times in milliseconds, repeat intervals, activity and repetition flags as bits in words
+ * and indexes into a table of distinct titles. Each title in the table counts the tasks which use it,
+ * the slot of a title is freed when its last task is removed and reused for a new title.
+ * Tasks are not kept as objects, {@link #getTask(int)} and the iterator hand out read-only views,
+ * which read the columns on access and are equal to tasks with the same values. A view is valid until a task
+ * is removed from the list, afterwards its accessors throw {@link ConcurrentModificationException};
+ * a task which has to outlive removals is copied by {@link Task#clone()}.
+ * {@link #incoming(Date, Date)} works over the columns and creates views only for the result.
+ */
+public class ColumnarTaskList extends TaskList {
+    private static final long serialVersionUID = 8120931635376012714L;
+    private static final int INIT_SIZE = 20;
+    private long[] starts;
+    private long[] ends;
+    private int[] intervals;
+    private int[] titleIds;
+    private long[] active;
+    private long[] repeated;
+    private String[] titles = new String[INIT_SIZE];
+    /**
+     * Number of tasks which use each title
+     */
+    private int[] titleRefs = new int[INIT_SIZE];
+    private int titleCount;
+    /**
+     * Stack of freed slots of the title table
+     */
+    private int[] freeTitleIds = new int[0];
+    private int freeTitleCount;
+    private Map<String, Integer> titleIndex = new HashMap<>();
+    /**
+     * Number of removals, which invalidate the views of the tasks
+     */
+    private transient int removals;
+
+    /**
+     * Constructs an empty ColumnarTaskList with an initial capacity.
+     */
+    public ColumnarTaskList() {
+        this(INIT_SIZE);
+    }
+
+    /**
+     * Constructs an empty ColumnarTaskList with the specified initial capacity.
+     *
+     * @param capacity initial capacity of the list
+     */
+    public ColumnarTaskList(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Entered value: capacity=" + capacity + " - not valid. Has to be >= 0.");
+        }
+        starts = new long[capacity];
+        ends = new long[capacity];
+        intervals = new int[capacity];
+        titleIds = new int[capacity];
+        active = new long[words(capacity)];
+        repeated = new long[words(capacity)];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean add(Task task) {
+        if (task != null) {
+            if (size() == starts.length) {
+                resize(Math.max(INIT_SIZE, size() + (size() >> 1)));
+            }
+            starts[size] = task.getStartMillis();
+            ends[size] = task.getEndMillis();
+            intervals[size] = task.getRepeatInterval();
+            titleIds[size] = titleId(task.getTitle());
+            setBit(active, size, task.isActive());
+            setBit(repeated, size, task.isRepeated());
+            size++;
+        } else {
+            throw new IllegalArgumentException("Can't add null task.");
+        }
+        return true;
+    }
+
+    private void resize(int newSize) {
+        starts = Arrays.copyOf(starts, newSize);
+        ends = Arrays.copyOf(ends, newSize);
+        intervals = Arrays.copyOf(intervals, newSize);
+        titleIds = Arrays.copyOf(titleIds, newSize);
+        active = Arrays.copyOf(active, words(newSize));
+        repeated = Arrays.copyOf(repeated, words(newSize));
+    }
+
+    /**
+     * Returns the number of words for the flags of the specified number of tasks
+     */
+    private static int words(int capacity) {
+        return (capacity + Long.SIZE - 1) >>> 6;
+    }
+
+    private static boolean getBit(long[] words, int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] words, int index, boolean value) {
+        if (value) {
+            words[index >>> 6] |= 1L << index;
+        } else {
+            words[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Returns index of the title in the title table and counts one more task using it.
+     * A new title takes a freed slot, if there is any, or is appended to the table.
+     */
+    private int titleId(String title) {
+        Integer id = titleIndex.get(title);
+        if (id == null) {
+            if (freeTitleCount > 0) {
+                id = freeTitleIds[--freeTitleCount];
+            } else {
+                if (titleCount == titles.length) {
+                    titles = Arrays.copyOf(titles, titleCount + (titleCount >> 1));
+                    titleRefs = Arrays.copyOf(titleRefs, titles.length);
+                }
+                id = titleCount++;
+            }
+            titles[id] = title;
+            titleIndex.put(title, id);
+        }
+        titleRefs[id]++;
+        return id;
+    }
+
+    /**
+     * Counts one task less using the title, the slot is freed when no task uses it
+     */
+    private void releaseTitle(int id) {
+        if (--titleRefs[id] == 0) {
+            titleIndex.remove(titles[id]);
+            titles[id] = null;
+            if (freeTitleCount == freeTitleIds.length) {
+                freeTitleIds = Arrays.copyOf(freeTitleIds, Math.max(INIT_SIZE, freeTitleCount + (freeTitleCount >> 1)));
+            }
+            freeTitleIds[freeTitleCount++] = id;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove(Task task) {
+        if (task != null) {
+            Integer id = titleIndex.get(task.getTitle());
+            if (id == null) {
+                return false;
+            }
+            long start = task.getStartMillis();
+            long end = task.getEndMillis();
+            for (int i = 0; i < size(); i++) {
+                if (titleIds[i] == id && starts[i] == start && ends[i] == end
+                        && intervals[i] == task.getRepeatInterval()
+                        && getBit(active, i) == task.isActive()
+                        && getBit(repeated, i) == task.isRepeated()) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        } else {
+            throw new IllegalArgumentException("Can't remove null task.");
+        }
+    }
+
+    private void removeAt(int index) {
+        int moved = size() - index - 1;
+        releaseTitle(titleIds[index]);
+        System.arraycopy(starts, index + 1, starts, index, moved);
+        System.arraycopy(ends, index + 1, ends, index, moved);
+        System.arraycopy(intervals, index + 1, intervals, index, moved);
+        System.arraycopy(titleIds, index + 1, titleIds, index, moved);
+        removeBit(active, index, size());
+        removeBit(repeated, index, size());
+        size--;
+        removals++;
+    }
+
+    /**
+     * Removes the bit at the index from the bits of the tasks and shifts the following bits down by one
+     * in place, a word at a time. The bits after the tasks stay cleared.
+     */
+    private static void removeBit(long[] words, int index, int size) {
+        int word = index >>> 6;
+        int last = (size - 1) >>> 6;
+        long upper = -1L << index;
+        words[word] = (words[word] & ~upper) | ((words[word] >>> 1) & upper);
+        for (int i = word + 1; i <= last; i++) {
+            words[i - 1] |= words[i] << 63;
+            words[i] >>>= 1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returns a read-only view of the task, which is valid until a task is removed from the list.
+     */
+    public Task getTask(int index) {
+        if (index >= 0 && index < size()) {
+            return new TaskView(index);
+        } else {
+            throw new IndexOutOfBoundsException("Index out of range.");
+        }
+    }
+
+    /**
+     * Read-only view of the task at a position of the list, which reads the columns on access
+     */
+    private final class TaskView extends Task {
+        private static final long serialVersionUID = -3309157146248371720L;
+        private final int index;
+        private final int expectedRemovals;
+
+        private TaskView(int index) {
+            this.index = index;
+            this.expectedRemovals = removals;
+        }
+
+        /**
+         * Returns the position of the task, if no task has been removed since the view was created
+         */
+        private int index() {
+            if (removals != expectedRemovals) {
+                throw new ConcurrentModificationException("Task is removed or moved since it was returned.");
+            }
+            return index;
+        }
+
+        public String getTitle() {
+            return titles[titleIds[index()]];
+        }
+
+        public boolean isActive() {
+            return getBit(active, index());
+        }
+
+        public Date getTime() {
+            return getStartTime();
+        }
+
+        public Date getStartTime() {
+            return new Date(getStartMillis());
+        }
+
+        public Date getEndTime() {
+            return new Date(getEndMillis());
+        }
+
+        long getStartMillis() {
+            return starts[index()];
+        }
+
+        long getEndMillis() {
+            return ends[index()];
+        }
+
+        public int getRepeatInterval() {
+            return intervals[index()];
+        }
+
+        public boolean isRepeated() {
+            return getBit(repeated, index());
+        }
+
+        public void setTitle(String title) {
+            throw new UnsupportedOperationException("Task of a columnar list is read-only.");
+        }
+
+        public void setActive(boolean active) {
+            throw new UnsupportedOperationException("Task of a columnar list is read-only.");
+        }
+
+        public void setTime(Date time) {
+            throw new UnsupportedOperationException("Task of a columnar list is read-only.");
+        }
+
+        public void setTime(Date start, Date end, int interval) {
+            throw new UnsupportedOperationException("Task of a columnar list is read-only.");
+        }
+
+        /**
+         * Returns a task with the values of the view, which doesn't depend on the list
+         *
+         * @return a copy of the task
+         */
+        public Task clone() {
+            Task task;
+            if (isRepeated()) {
+                task = new Task(getTitle(), getStartTime(), getEndTime(), getRepeatInterval());
+            } else {
+                task = new Task(getTitle(), getStartTime());
+            }
+            task.setActive(isActive());
+            return task;
+        }
+
+        /**
+         * Replaces the view with a copy during serialization, as the list is not a part of the task
+         */
+        private Object writeReplace() {
+            return clone();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Notification times are computed from the columns, without creating tasks.
+     */
+    public TaskList incoming(Date from, Date to) {
+        checkRange(from, to);
+        long fromTime = from.getTime();
+        long toTime = to.getTime();
+        TaskList incomingTasks = createInstance();
+        for (int i = 0; i < size(); i++) {
+            long next = nextTimeAfter(i, fromTime);
+            if (next > fromTime && next <= toTime) {
+                incomingTasks.add(getTask(i));
+            }
+        }
+        return incomingTasks;
+    }
+
+    /**
+     * Returns time of the next alert of the task at the specified position after the specified time,
+     * or -1 if there are no more alerts. Follows {@link Task#nextTimeAfter(long)}.
+     */
+    private long nextTimeAfter(int index, long current) {
+        return Task.nextTimeAfter(starts[index], ends[index], intervals[index], getBit(active, index), current);
+    }
+
+    protected TaskList createInstance() {
+        return new ColumnarTaskList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private int currentIndex = -1;
+
+            public boolean hasNext() {
+                return currentIndex < size() - 1;
+            }
+
+            public Task next() {
+                if (hasNext()) {
+                    return getTask(++currentIndex);
+                }
+                throw new NoSuchElementException("No more elements in the list.");
+            }
+
+            public void remove() {
+                if (currentIndex < 0) {
+                    throw new IllegalStateException("Can't remove.");
+                } else {
+                    removeAt(currentIndex--);
+                }
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ColumnarTaskList clone() {
+        ColumnarTaskList clone = (ColumnarTaskList) super.clone();
+        clone.starts = starts.clone();
+        clone.ends = ends.clone();
+        clone.intervals = intervals.clone();
+        clone.titleIds = titleIds.clone();
+        clone.active = active.clone();
+        clone.repeated = repeated.clone();
+        clone.titles = titles.clone();
+        clone.titleRefs = titleRefs.clone();
+        clone.freeTitleIds = freeTitleIds.clone();
+        clone.titleIndex = new HashMap<>(titleIndex);
+        return clone;
+    }
+}
@@ -0,0 +1,502 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The IntervalTaskList class stores the task list in insertion order and
+ * additionally indexes every task by its notification interval
+ * {@code [startTime, endTime]} in an augmented balanced search tree (interval tree).
+ * The tree lets {@link #incoming(Date, Date)} and therefore {@link Tasks#calendar(Iterable, Date, Date)}
+ * visit only tasks whose interval intersects the requested period, in O(log n + k) time.
+ * The tasks of the period are collected by an in-order walk of the tree, so they are returned in the order
+ * of their start times, tasks with equal start times in insertion order.
+ * The insertion order is kept by a second balanced tree over the same nodes, ordered by
+ * sequence number and counting the nodes of each subtree, so adding, removing and getting
+ * a task by its index take O(log n) time. The iterator walks the order tree with a stack of the path
+ * to the next node, in O(1) amortized time per task.
+ * Times of a task are captured when it is added, so a task must not be changed
+ * with {@code setTime} while it is stored in the list.
+ * The tasks are serialized in insertion order in the compact format of {@link Task},
+ * the trees are rebuilt when the list is read.
+ */
+public class IntervalTaskList extends TaskList {
+    private static final long serialVersionUID = -2364715027436628195L;
+    private transient Node root;
+    private transient Node orderRoot;
+    private long sequence;
+    /**
+     * Number of changes of the trees, which move the paths of the iterators
+     */
+    private transient int modifications;
+
+    /**
+     * Constructs an empty IntervalTaskList.
+     */
+    public IntervalTaskList() {
+    }
+
+    /**
+     * Node of the interval tree and of the order tree. In the interval tree nodes are ordered by start time
+     * and then by the sequence number of insertion, so equal start times keep insertion order.
+     * In the order tree nodes are ordered by the sequence number only.
+     */
+    private static class Node {
+        private final Task task;
+        private final long start;
+        private final long end;
+        private final long seq;
+        private long maxEnd;
+        private int height = 1;
+        private Node left;
+        private Node right;
+        private int orderHeight = 1;
+        private int count = 1;
+        private Node orderLeft;
+        private Node orderRight;
+
+        private Node(Task task, long seq) {
+            this.task = task;
+            this.start = task.getStartTime().getTime();
+            this.end = task.getEndTime().getTime();
+            this.seq = seq;
+            this.maxEnd = end;
+        }
+
+        private int compareTo(long otherStart, long otherSeq) {
+            if (start != otherStart) {
+                return start < otherStart ? -1 : 1;
+            }
+            return Long.compare(seq, otherSeq);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean add(Task task) {
+        if (task != null) {
+            Node node = new Node(task, sequence++);
+            root = insert(root, node);
+            orderRoot = append(orderRoot, node);
+            size++;
+            modifications++;
+        } else {
+            throw new IllegalArgumentException("Can't add null task.");
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove(Task task) {
+        if (task != null) {
+            Node node = findFirst(root, task.getStartTime().getTime(), task);
+            if (node == null) {
+                return false;
+            }
+            unlink(node);
+            return true;
+        } else {
+            throw new IllegalArgumentException("Can't remove null task.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Task getTask(int index) {
+        if (index >= 0 && index < size()) {
+            return nodeAt(orderRoot, index).task;
+        } else {
+            throw new IndexOutOfBoundsException("Index out of range.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the tasks whose notification interval intersects the period are checked,
+     * they are returned in the order of their start times.
+     */
+    public TaskList incoming(Date from, Date to) {
+        checkRange(from, to);
+        TaskList incomingTasks = createInstance();
+        collect(root, from.getTime(), to.getTime(), incomingTasks);
+        return incomingTasks;
+    }
+
+    protected TaskList createInstance() {
+        return new IntervalTaskList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private int currentIndex = -1;
+            private Node lastReturned;
+            /**
+             * Nodes on the path to the next node, which follow the nodes of their left subtrees
+             */
+            private final ArrayDeque<Node> path = new ArrayDeque<>();
+            private int expectedModifications;
+
+            {
+                seek(0);
+            }
+
+            public boolean hasNext() {
+                return currentIndex < size() - 1;
+            }
+
+            public Task next() {
+                if (hasNext()) {
+                    if (expectedModifications != modifications) {
+                        seek(currentIndex + 1);
+                    }
+                    Node node = path.pop();
+                    for (Node left = node.orderRight; left != null; left = left.orderLeft) {
+                        path.push(left);
+                    }
+                    currentIndex++;
+                    lastReturned = node;
+                    return node.task;
+                }
+                throw new NoSuchElementException("No more elements in the list.");
+            }
+
+            public void remove() {
+                if (lastReturned == null) {
+                    throw new IllegalStateException("Can't remove.");
+                } else {
+                    unlink(lastReturned);
+                    lastReturned = null;
+                    currentIndex--;
+                }
+            }
+
+            /**
+             * Builds the path to the node at the position, after the trees have changed
+             */
+            private void seek(int index) {
+                path.clear();
+                Node node = orderRoot;
+                while (node != null) {
+                    int leftCount = count(node.orderLeft);
+                    if (index < leftCount) {
+                        path.push(node);
+                        node = node.orderLeft;
+                    } else if (index > leftCount) {
+                        index -= leftCount + 1;
+                        node = node.orderRight;
+                    } else {
+                        path.push(node);
+                        node = null;
+                    }
+                }
+                expectedModifications = modifications;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public IntervalTaskList clone() {
+        IntervalTaskList clone = (IntervalTaskList) super.clone();
+        clone.root = null;
+        clone.orderRoot = null;
+        clone.sequence = 0;
+        clone.size = 0;
+        for (Task task : this) {
+            clone.add(task);
+        }
+        return clone;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        Map<String, Integer> titles = new HashMap<>();
+        for (Task task : this) {
+            task.writeCompact(out, titles);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (size < 0) {
+            throw new InvalidObjectException("Entered value: size=" + size + " - not valid. Has to be >= 0.");
+        }
+        int count = size;
+        size = 0;
+        sequence = 0;
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            add(Task.readCompact(in, titles));
+        }
+    }
+
+    /**
+     * Removes the node from both trees
+     */
+    private void unlink(Node node) {
+        root = delete(root, node);
+        orderRoot = deleteOrdered(orderRoot, node);
+        size--;
+        modifications++;
+    }
+
+    /**
+     * Adds to {@code result} in order the tasks of the subtree which have a notification in
+     * the period ({@code from}, {@code to}]. Subtrees that end before the period are skipped.
+     */
+    private static void collect(Node node, long from, long to, TaskList result) {
+        if (node == null || node.maxEnd <= from) {
+            return;
+        }
+        collect(node.left, from, to, result);
+        if (node.start <= to) {
+            if (node.end > from && isIncoming(node.task, from, to)) {
+                result.add(node.task);
+            }
+            collect(node.right, from, to, result);
+        }
+    }
+
+    /**
+     * Finds the earliest inserted node holding a task equal to the specified one.
+     * Only nodes with the same start time as the task are compared.
+     */
+    private static Node findFirst(Node node, long start, Task task) {
+        if (node == null) {
+            return null;
+        } else if (node.start < start) {
+            return findFirst(node.right, start, task);
+        } else if (node.start > start) {
+            return findFirst(node.left, start, task);
+        }
+        Node found = findFirst(node.left, start, task);
+        if (found != null) {
+            return found;
+        }
+        return node.task.equals(task) ? node : findFirst(node.right, start, task);
+    }
+
+    /**
+     * Returns the node at the position in insertion order
+     */
+    private static Node nodeAt(Node node, int index) {
+        while (true) {
+            int leftCount = count(node.orderLeft);
+            if (index < leftCount) {
+                node = node.orderLeft;
+            } else if (index > leftCount) {
+                index -= leftCount + 1;
+                node = node.orderRight;
+            } else {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Appends the node to the order tree, it has the greatest sequence number
+     */
+    private static Node append(Node node, Node item) {
+        if (node == null) {
+            return item;
+        }
+        node.orderRight = append(node.orderRight, item);
+        return balanceOrdered(node);
+    }
+
+    private static Node deleteOrdered(Node node, Node item) {
+        if (node == null) {
+            return null;
+        }
+        if (item.seq < node.seq) {
+            node.orderLeft = deleteOrdered(node.orderLeft, item);
+        } else if (item.seq > node.seq) {
+            node.orderRight = deleteOrdered(node.orderRight, item);
+        } else {
+            if (node.orderLeft == null) {
+                return node.orderRight;
+            } else if (node.orderRight == null) {
+                return node.orderLeft;
+            }
+            Node min = node.orderRight;
+            while (min.orderLeft != null) {
+                min = min.orderLeft;
+            }
+            min.orderRight = deleteMinOrdered(node.orderRight);
+            min.orderLeft = node.orderLeft;
+            node = min;
+        }
+        return balanceOrdered(node);
+    }
+
+    private static Node deleteMinOrdered(Node node) {
+        if (node.orderLeft == null) {
+            return node.orderRight;
+        }
+        node.orderLeft = deleteMinOrdered(node.orderLeft);
+        return balanceOrdered(node);
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    private static int orderHeight(Node node) {
+        return node == null ? 0 : node.orderHeight;
+    }
+
+    private static void updateOrdered(Node node) {
+        node.orderHeight = Math.max(orderHeight(node.orderLeft), orderHeight(node.orderRight)) + 1;
+        node.count = count(node.orderLeft) + count(node.orderRight) + 1;
+    }
+
+    private static Node balanceOrdered(Node node) {
+        updateOrdered(node);
+        int factor = orderHeight(node.orderLeft) - orderHeight(node.orderRight);
+        if (factor > 1) {
+            if (orderHeight(node.orderLeft.orderLeft) < orderHeight(node.orderLeft.orderRight)) {
+                node.orderLeft = rotateLeftOrdered(node.orderLeft);
+            }
+            return rotateRightOrdered(node);
+        } else if (factor < -1) {
+            if (orderHeight(node.orderRight.orderRight) < orderHeight(node.orderRight.orderLeft)) {
+                node.orderRight = rotateRightOrdered(node.orderRight);
+            }
+            return rotateLeftOrdered(node);
+        }
+        return node;
+    }
+
+    private static Node rotateRightOrdered(Node node) {
+        Node left = node.orderLeft;
+        node.orderLeft = left.orderRight;
+        left.orderRight = node;
+        updateOrdered(node);
+        updateOrdered(left);
+        return left;
+    }
+
+    private static Node rotateLeftOrdered(Node node) {
+        Node right = node.orderRight;
+        node.orderRight = right.orderLeft;
+        right.orderLeft = node;
+        updateOrdered(node);
+        updateOrdered(right);
+        return right;
+    }
+
+    private static Node insert(Node node, Node item) {
+        if (node == null) {
+            return item;
+        }
+        if (item.compareTo(node.start, node.seq) < 0) {
+            node.left = insert(node.left, item);
+        } else {
+            node.right = insert(node.right, item);
+        }
+        return balance(node);
+    }
+
+    private static Node delete(Node node, Node item) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = item.compareTo(node.start, node.seq);
+        if (cmp < 0) {
+            node.left = delete(node.left, item);
+        } else if (cmp > 0) {
+            node.right = delete(node.right, item);
+        } else {
+            if (node.left == null) {
+                return node.right;
+            } else if (node.right == null) {
+                return node.left;
+            }
+            Node min = node.right;
+            while (min.left != null) {
+                min = min.left;
+            }
+            min.right = deleteMin(node.right);
+            min.left = node.left;
+            node = min;
+        }
+        return balance(node);
+    }
+
+    private static Node deleteMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = deleteMin(node.left);
+        return balance(node);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void update(Node node) {
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+        long maxEnd = node.end;
+        if (node.left != null && node.left.maxEnd > maxEnd) {
+            maxEnd = node.left.maxEnd;
+        }
+        if (node.right != null && node.right.maxEnd > maxEnd) {
+            maxEnd = node.right.maxEnd;
+        }
+        node.maxEnd = maxEnd;
+    }
+
+    private static Node balance(Node node) {
+        update(node);
+        int factor = height(node.left) - height(node.right);
+        if (factor > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        } else if (factor < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+}
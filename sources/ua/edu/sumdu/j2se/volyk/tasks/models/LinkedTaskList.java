@@ -1,57 +1,99 @@
 package ua.edu.sumdu.j2se.volyk.tasks.models;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 
 /**
- * The LinkedTaskList class stores the linked task list.
+ * The LinkedTaskList class stores the doubly linked task list.
+ * Tasks are appended at the tail in constant time. The list remembers the item
+ * found by the last {@link #getTask(int)} call, so access to the same or neighbouring
+ * positions (e.g. getting tasks one by one in a loop) takes constant time as well.
+ * Optionally the list keeps a hash index from tasks to their items, which makes
+ * {@link #contains(Object)} and {@link #remove(Task)} take constant expected time.
+ * As with keys of a {@link java.util.HashMap}, tasks must not be changed while they
+ * are stored in an indexed list.
+ * The tasks are serialized in the compact format of {@link Task} with equal titles written once,
+ * instead of the chain of items.
  */
 public class LinkedTaskList extends TaskList {
+    private static final long serialVersionUID = -2123715109045540753L;
+    /**
+     * The items are not serialized by default, the tasks are written by {@link #writeObject(ObjectOutputStream)}
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("indexed", boolean.class)
+    };
     private ListItem head;
+    private ListItem tail;
+    private ListItem cursor;
+    private int cursorIndex;
+    private boolean indexed;
+    /**
+     * First item of each task. Items with equal tasks are chained in list order.
+     */
+    private Map<Task, ListItem> items;
 
     /**
      * Constructs an empty LinkedTaskList.
      */
     public LinkedTaskList() {
+        this(false);
+    }
+
+    /**
+     * Constructs an empty LinkedTaskList.
+     *
+     * @param indexed whether the list keeps a hash index of its tasks
+     */
+    public LinkedTaskList(boolean indexed) {
+        this.indexed = indexed;
+        if (indexed) {
+            items = new HashMap<>();
+        }
     }
 
-    private class ListItem implements Cloneable {
+    /**
+     * Returns {@code true} if the list keeps a hash index of its tasks.
+     *
+     * @return {@code true} if the list keeps a hash index of its tasks
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    private class ListItem {
         private Task task;
+        private ListItem prev;
         private ListItem next;
+        private ListItem nextEqual;
 
-        private ListItem(Task task) {
-            this.task = task;
-        }
-
-        private ListItem(Task task, ListItem next) {
+        private ListItem(Task task, ListItem prev) {
             this.task = task;
-            this.next = next;
+            this.prev = prev;
         }
 
         private Task getTask() {
             return task;
         }
 
-        private void setTask(Task task) {
-            this.task = task;
+        private ListItem getPrev() {
+            return prev;
         }
 
         private ListItem getNext() {
             return next;
         }
-
-        private void setNext(ListItem item) {
-            this.next = item;
-        }
-
-        protected ListItem clone() {
-            try {
-                ListItem clone = (ListItem) super.clone();
-                return clone;
-            } catch (CloneNotSupportedException e) {
-                throw new RuntimeException("Clone not supported", e);
-            }
-        }
     }
 
     /**
@@ -59,21 +101,27 @@ public class LinkedTaskList extends TaskList {
      */
     public boolean add(Task task) {
         if (task != null) {
-            if (head == null) {
-                head = new ListItem(task);
-                size++;
-                return false;
-            }
-            ListItem currentItem = head;
-            while (currentItem.getNext() != null) {
-                currentItem = currentItem.getNext();
+            ListItem item = new ListItem(task, tail);
+            if (tail == null) {
+                head = item;
+            } else {
+                tail.next = item;
             }
-            currentItem.setNext(new ListItem(task));
+            tail = item;
             size++;
+            if (indexed) {
+                ListItem equalItem = items.putIfAbsent(task, item);
+                if (equalItem != null) {
+                    while (equalItem.nextEqual != null) {
+                        equalItem = equalItem.nextEqual;
+                    }
+                    equalItem.nextEqual = item;
+                }
+            }
         } else {
             throw new IllegalArgumentException("Can't add null task.");
         }
-        return false;
+        return true;
     }
 
     /**
@@ -81,45 +129,133 @@ public class LinkedTaskList extends TaskList {
      */
     public boolean remove(Task task) {
         if (task != null) {
-            if (head == null) {
-                System.out.println("List is empty!");
-                return false;
-            }
-            ListItem currentItem = head;
-            if (head.getTask().equals(task)) {
-                head = head.getNext();
-                currentItem = head;
-                size--;
-                return true;
-            } else {
-                while (currentItem.getNext() != null && !currentItem.getNext().getTask().equals(task)) {
-                    currentItem = currentItem.getNext();
+            if (indexed) {
+                ListItem item = items.get(task);
+                if (item == null) {
+                    return false;
                 }
-                if (currentItem.getNext() != null) {
-                    currentItem.setNext(currentItem.getNext().getNext());
-                    size--;
+                unlink(item, knownIndexOf(item));
+                return true;
+            }
+            int index = 0;
+            for (ListItem currentItem = head; currentItem != null; currentItem = currentItem.getNext()) {
+                if (currentItem.getTask().equals(task)) {
+                    unlink(currentItem, index);
                     return true;
-                } else {
-                    return false;
                 }
+                index++;
             }
-
+            return false;
         } else {
             throw new IllegalArgumentException("Can't remove null task.");
         }
     }
 
+    /**
+     * Removes the item at the specified position from the list and keeps the cursor valid
+     *
+     * @param item  item to be removed
+     * @param index position of the item or -1 if it is not known
+     */
+    private void unlink(ListItem item, int index) {
+        if (item.prev == null) {
+            head = item.next;
+        } else {
+            item.prev.next = item.next;
+        }
+        if (item.next == null) {
+            tail = item.prev;
+        } else {
+            item.next.prev = item.prev;
+        }
+        if (cursor == item || index < 0) {
+            cursor = null;
+        } else if (cursor != null && cursorIndex > index) {
+            cursorIndex--;
+        }
+        if (indexed) {
+            ListItem equalItem = items.get(item.getTask());
+            if (equalItem == item) {
+                if (item.nextEqual == null) {
+                    items.remove(item.getTask());
+                } else {
+                    items.put(item.getTask(), item.nextEqual);
+                }
+            } else {
+                while (equalItem.nextEqual != item) {
+                    equalItem = equalItem.nextEqual;
+                }
+                equalItem.nextEqual = item.nextEqual;
+            }
+        }
+        size--;
+    }
+
+    /**
+     * Returns position of the item if it is known without walking the list, otherwise -1.
+     * The position is known for the items at the ends of the list and the item of the last {@link #getTask(int)} call.
+     */
+    private int knownIndexOf(ListItem item) {
+        if (item == head) {
+            return 0;
+        } else if (item == tail) {
+            return size() - 1;
+        } else if (item == cursor) {
+            return cursorIndex;
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the list is indexed, a task that is not in the list is recognized in constant time.
+     */
+    public int indexOf(Task task) {
+        if (indexed && !items.containsKey(task)) {
+            return -1;
+        }
+        return super.indexOf(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the list is indexed, takes constant expected time.
+     */
+    public boolean contains(Object o) {
+        if (indexed) {
+            return items.containsKey(o);
+        }
+        return super.contains(o);
+    }
+
     /**
      * {@inheritDoc}
+     * The search starts from the head, the tail or the item of the previous call,
+     * whichever is closest to the index.
      */
     public Task getTask(int index) {
         if (index >= 0 && index < size()) {
-            int i = 0;
-            ListItem currentItem = head;
-            while (currentItem.getNext() != null && i < index) {
+            ListItem currentItem;
+            int i;
+            if (index < size() - 1 - index) {
+                currentItem = head;
+                i = 0;
+            } else {
+                currentItem = tail;
+                i = size() - 1;
+            }
+            if (cursor != null && Math.abs(cursorIndex - index) < Math.abs(i - index)) {
+                currentItem = cursor;
+                i = cursorIndex;
+            }
+            for (; i < index; i++) {
                 currentItem = currentItem.getNext();
-                i++;
             }
+            for (; i > index; i--) {
+                currentItem = currentItem.getPrev();
+            }
+            cursor = currentItem;
+            cursorIndex = index;
             return currentItem.getTask();
         } else {
             throw new IndexOutOfBoundsException("Index out of range.");
@@ -127,7 +263,7 @@ public class LinkedTaskList extends TaskList {
     }
 
     protected TaskList createInstance() {
-        return new LinkedTaskList();
+        return new LinkedTaskList(indexed);
     }
 
     /**
@@ -135,9 +271,9 @@ public class LinkedTaskList extends TaskList {
      */
     public Iterator<Task> iterator() {
         return new Iterator<Task>() {
-            private ListItem prevItem = null;
             private ListItem currentItem = null;
             private ListItem nextItem = head;
+            private int currentIndex = -1;
 
             public boolean hasNext() {
                 return nextItem != null;
@@ -147,32 +283,77 @@ public class LinkedTaskList extends TaskList {
                 if (!hasNext()) {
                     throw new NoSuchElementException("No more elements in the list.");
                 }
-                prevItem = currentItem;
                 currentItem = nextItem;
                 nextItem = currentItem.getNext();
+                currentIndex++;
                 return currentItem.getTask();
             }
 
             public void remove() {
                 if (currentItem == null) {
                     throw new IllegalStateException("Can't remove.");
-                } else if (prevItem == null) {
-                    head = nextItem;
-                } else {
-                    prevItem.setNext(nextItem);
                 }
+                unlink(currentItem, currentIndex--);
                 currentItem = null;
-                size--;
             }
         };
     }
 
+    /**
+     * Returns a spliterator over the elements in this list. As the list has no random access,
+     * the spliterator splits off batches of growing size, which are copied from the list into arrays,
+     * so that parallel streams over the list can be processed by several threads.
+     *
+     * @return a spliterator over the elements in this list
+     */
+    public Spliterator<Task> spliterator() {
+        return Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
     /**
      * {@inheritDoc}
      */
     public LinkedTaskList clone() {
         LinkedTaskList clone = (LinkedTaskList) super.clone();
-        clone.head = (ListItem) head.clone();
+        clone.head = null;
+        clone.tail = null;
+        clone.cursor = null;
+        clone.size = 0;
+        if (indexed) {
+            clone.items = new HashMap<>();
+        }
+        for (ListItem currentItem = head; currentItem != null; currentItem = currentItem.getNext()) {
+            clone.add(currentItem.getTask());
+        }
         return clone;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        Map<String, Integer> titles = new HashMap<>();
+        for (ListItem currentItem = head; currentItem != null; currentItem = currentItem.getNext()) {
+            currentItem.getTask().writeCompact(out, titles);
+        }
+    }
+
+    /**
+     * Reads the tasks in the compact format. Lists of the former versions could be serialized
+     * only when they were empty, so such streams contain no tasks.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        indexed = fields.get("indexed", false);
+        if (size < 0) {
+            throw new InvalidObjectException("Entered value: size=" + size + " - not valid. Has to be >= 0.");
+        }
+        int count = fields.getObjectStreamClass().getField("head") != null ? 0 : size;
+        size = 0;
+        if (indexed) {
+            items = new HashMap<>();
+        }
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            add(Task.readCompact(in, titles));
+        }
+    }
 }
\ No newline at end of file
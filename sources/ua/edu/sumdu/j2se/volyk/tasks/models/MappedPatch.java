@@ -0,0 +1,90 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+/**
+ * The MappedPatch class holds the changes of an {@link ArrayTaskList} to be written to its file in the format of
+ * {@link MappedTaskList}. A patch is taken by {@link ArrayTaskList#takeMappedPatch()} on the thread which changes
+ * the list and may be written by {@link TaskIO#writeMapped(MappedPatch, java.io.File)} on another thread,
+ * as it doesn't refer to the list. Patches of a list have to be written in the order they were taken.
+ * A full patch holds all the tasks of the list, which replace the content of the file.
+ * Otherwise the patch holds the bytes to be written at offsets of the file: the changed records, the appended titles
+ * and the new header, along with the header the file has to have before the patch.
+ */
+public final class MappedPatch {
+    /**
+     * Tasks of a full patch, {@code null} for a partial patch
+     */
+    private final Task[] tasks;
+    /**
+     * Number of record slots of the file written by a full patch
+     */
+    private final int capacity;
+    /**
+     * Header of the file the partial patch applies to
+     */
+    private final byte[] base;
+    private final long[] offsets;
+    private final byte[][] data;
+    private final int recordCount;
+
+    /**
+     * Constructs a full patch
+     */
+    MappedPatch(Task[] tasks, int capacity) {
+        this.tasks = tasks;
+        this.capacity = capacity;
+        this.base = null;
+        this.offsets = null;
+        this.data = null;
+        this.recordCount = tasks.length;
+    }
+
+    /**
+     * Constructs a partial patch
+     */
+    MappedPatch(byte[] base, long[] offsets, byte[][] data, int recordCount) {
+        this.tasks = null;
+        this.capacity = 0;
+        this.base = base;
+        this.offsets = offsets;
+        this.data = data;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Returns {@code true} if the patch replaces the whole content of the file.
+     *
+     * @return {@code true} if the patch replaces the whole content of the file
+     */
+    public boolean isFull() {
+        return tasks != null;
+    }
+
+    /**
+     * Returns the number of records written by the patch, including tombstones of removed tasks.
+     *
+     * @return the number of written records
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    Task[] getTasks() {
+        return tasks;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    byte[] getBase() {
+        return base;
+    }
+
+    long[] getOffsets() {
+        return offsets;
+    }
+
+    byte[][] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,210 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Slots of the tasks of an {@link ArrayTaskList} in the file it was persisted to in the format of {@link MappedTaskList}
+ * and the changes of the list since then. A task keeps its slot while the list changes: a removed task leaves
+ * a tombstone in its slot, a task changed in place is rewritten in its slot and added tasks take the slots
+ * after the used ones. As tasks are only added at the end of the list, the used slots stay in the order of the list
+ * and each change of the list changes a single slot.
+ * The file is written entirely when its slots run out, which happens after about a quarter of its size of changes,
+ * so the cost of the full writes spread over the changes is constant.
+ */
+class MappedSlots {
+    /**
+     * Title area which is not compacted until it grows twice as large
+     */
+    private static final long MIN_TITLE_AREA = 64 * 1024;
+    /**
+     * Slot of each task of the list, -1 for the tasks added since the last patch, which are at the end of the list.
+     * The slots of the other tasks ascend.
+     */
+    private int[] slots;
+    private int size;
+    private final int capacity;
+    private int usedSlots;
+    /**
+     * Number of tasks in the file after the last patch
+     */
+    private int persistedSize;
+    private long titlesLength;
+    private final long compactedLength;
+    /**
+     * Slots of the tasks removed since the last patch
+     */
+    private int[] removed = new int[8];
+    private int removedCount;
+    /**
+     * Slots of the tasks changed in place since the last patch
+     */
+    private final BitSet changed = new BitSet();
+
+    /**
+     * Constructs the slots of a list read from or written to a file.
+     *
+     * @param slots           slot of each task of the list, ascending
+     * @param size            number of tasks
+     * @param capacity        number of slots of the file
+     * @param usedSlots       number of slots used by tasks and tombstones
+     * @param titlesLength    end of the title area
+     * @param compactedLength end of the title area after the last full write
+     */
+    MappedSlots(int[] slots, int size, int capacity, int usedSlots, long titlesLength, long compactedLength) {
+        this.slots = slots;
+        this.size = size;
+        this.capacity = capacity;
+        this.usedSlots = usedSlots;
+        this.persistedSize = size;
+        this.titlesLength = titlesLength;
+        this.compactedLength = compactedLength;
+    }
+
+    /**
+     * Returns the slots of the tasks written by the full patch, each task in the slot of its position
+     */
+    static MappedSlots written(Task[] tasks, int capacity) {
+        int[] slots = new int[Math.max(tasks.length, 8)];
+        long titlesLength = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            slots[i] = i;
+            titlesLength += utf8Length(tasks[i].getTitle());
+        }
+        return new MappedSlots(slots, tasks.length, capacity, tasks.length, titlesLength, titlesLength);
+    }
+
+    /**
+     * Records a task added at the end of the list
+     */
+    void added() {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size + size / 2 + 8);
+        }
+        slots[size++] = -1;
+    }
+
+    /**
+     * Records the removal of the task at the position
+     */
+    void removed(int index) {
+        int slot = slots[index];
+        System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+        size--;
+        if (slot >= 0) {
+            changed.clear(slot);
+            if (removedCount == removed.length) {
+                removed = Arrays.copyOf(removed, removedCount * 2);
+            }
+            removed[removedCount++] = slot;
+        }
+    }
+
+    /**
+     * Records a change in place of the task at the position
+     */
+    void changed(int index) {
+        if (slots[index] >= 0) {
+            changed.set(slots[index]);
+        }
+    }
+
+    /**
+     * Returns the patch of the file with the changes of the list since the last patch and forgets them.
+     * Returns {@code null} if the file has to be written entirely: if it has no free slots for the added tasks or
+     * its title area would grow twice as large as it was after the last full write.
+     *
+     * @param tasks array of the tasks of the list
+     * @return the patch of the file, or {@code null} if a full patch is needed
+     */
+    MappedPatch takePatch(Task[] tasks) {
+        int firstAdded = size;
+        while (firstAdded > 0 && slots[firstAdded - 1] < 0) {
+            firstAdded--;
+        }
+        int newUsedSlots = usedSlots + size - firstAdded;
+        if (newUsedSlots > capacity) {
+            return null;
+        }
+        int count = removedCount + changed.cardinality() + size - firstAdded;
+        long[] offsets = new long[count + 2];
+        byte[][] data = new byte[count + 2][];
+        ByteArrayOutputStream titles = new ByteArrayOutputStream();
+        int k = 0;
+        for (int i = 0; i < removedCount; i++) {
+            offsets[k] = recordOffset(removed[i]) + MappedTaskList.FLAGS_OFFSET;
+            data[k++] = ByteBuffer.allocate(Integer.BYTES).putInt(MappedTaskList.REMOVED_FLAG).array();
+        }
+        for (int slot = changed.nextSetBit(0); slot >= 0; slot = changed.nextSetBit(slot + 1)) {
+            offsets[k] = recordOffset(slot);
+            data[k++] = encode(tasks[Arrays.binarySearch(slots, 0, firstAdded, slot)], titles);
+        }
+        for (int i = firstAdded; i < size; i++) {
+            offsets[k] = recordOffset(usedSlots + i - firstAdded);
+            data[k++] = encode(tasks[i], titles);
+        }
+        long newTitlesLength = titlesLength + titles.size();
+        if (newTitlesLength > Integer.MAX_VALUE || newTitlesLength > 2 * Math.max(compactedLength, MIN_TITLE_AREA)) {
+            return null;
+        }
+        offsets[k] = recordOffset(capacity) + titlesLength;
+        data[k++] = titles.toByteArray();
+        offsets[k] = 0;
+        data[k] = MappedTaskList.header(size, capacity, newUsedSlots, newTitlesLength, compactedLength);
+        byte[] base = MappedTaskList.header(persistedSize, capacity, usedSlots, titlesLength, compactedLength);
+        for (int i = firstAdded; i < size; i++) {
+            slots[i] = usedSlots++;
+        }
+        persistedSize = size;
+        titlesLength = newTitlesLength;
+        removedCount = 0;
+        changed.clear();
+        return new MappedPatch(base, offsets, data, count);
+    }
+
+    private static long recordOffset(int slot) {
+        return MappedTaskList.HEADER_SIZE + (long) slot * MappedTaskList.RECORD_SIZE;
+    }
+
+    /**
+     * Returns the record of the task, whose title is appended to the titles, which follow the title area
+     */
+    private byte[] encode(Task task, ByteArrayOutputStream titles) {
+        byte[] title = task.getTitle().getBytes(StandardCharsets.UTF_8);
+        int flags = (task.isActive() ? MappedTaskList.ACTIVE_FLAG : 0)
+                | (task.isRepeated() ? MappedTaskList.REPEATED_FLAG : 0);
+        ByteBuffer record = ByteBuffer.allocate(MappedTaskList.RECORD_SIZE);
+        record.putLong(task.getStartTime().getTime()).putLong(task.getEndTime().getTime())
+                .putInt(task.getRepeatInterval()).putInt(flags)
+                .putInt((int) (titlesLength + titles.size())).putInt(title.length);
+        titles.write(title, 0, title.length);
+        return record.array();
+    }
+
+    /**
+     * Returns the length of the string in UTF-8 as encoded by {@link String#getBytes(java.nio.charset.Charset)},
+     * which replaces unpaired surrogates with one byte
+     */
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,227 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The MappedTaskList class is a read-only task list whose tasks stay in a task file
+ * mapped into memory, outside of the Java heap.
+ * The file is written by {@link TaskIO#writeMapped(TaskList, File)} and consists of:
+ * - Header: magic number, format version, number of tasks, number of record slots, number of used slots,
+ * end of the title area (relative to its start) and the end of the title area after the last full write
+ * (see {@link TaskIO#writeMapped(MappedPatch, File)})
+ * Then a record slot of fixed width for each task:
+ * - The start time
+ * - The end time
+ * - Repetition interval
+ * - Flags: activity, repetition and removal
+ * - Offset and length of the title in the title area
+ * And after the slots the title area with the titles in UTF-8.
+ * Tasks are stored in the used slots in the order of the list. A removed task leaves a tombstone in its slot
+ * until the file is written entirely, the positions of the other tasks are indexed when the file is opened.
+ * A task is decoded from its record only when it is requested.
+ */
+public class MappedTaskList extends TaskList {
+    private static final long serialVersionUID = -6813274457302856140L;
+    static final int MAGIC = 0x54534B4D;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 40;
+    static final int RECORD_SIZE = 32;
+    static final int ACTIVE_FLAG = 1;
+    static final int REPEATED_FLAG = 2;
+    static final int REMOVED_FLAG = 4;
+    /**
+     * Offset of the flags in a record
+     */
+    static final int FLAGS_OFFSET = 20;
+
+    private MappedByteBuffer buffer;
+    private int titlesOffset;
+    /**
+     * Slot of each task, {@code null} if the file has no tombstones and the slot of a task is its position
+     */
+    private int[] slots;
+
+    /**
+     * Maps the task file into memory. A patch of the file interrupted by a crash is completed first.
+     *
+     * @param file task file written by {@link TaskIO#writeMapped(TaskList, File)}
+     * @throws IOException if an I/O error occurs or the file has another format
+     */
+    public MappedTaskList(File file) throws IOException {
+        TaskIO.recoverMapped(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("File \"" + file + "\" is not a mapped task file.");
+            } else if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File \"" + file + "\" is too large to be mapped.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("File \"" + file + "\" is not a mapped task file.");
+        }
+        size = buffer.getInt(8);
+        int usedSlots = buffer.getInt(16);
+        titlesOffset = HEADER_SIZE + buffer.getInt(12) * RECORD_SIZE;
+        if (usedSlots != size) {
+            slots = new int[size];
+            int count = 0;
+            for (int slot = 0; slot < usedSlots; slot++) {
+                if ((buffer.getInt(HEADER_SIZE + slot * RECORD_SIZE + FLAGS_OFFSET) & REMOVED_FLAG) == 0) {
+                    if (count == size) {
+                        throw new IOException("File \"" + file + "\" has more tasks than its header.");
+                    }
+                    slots[count++] = slot;
+                }
+            }
+            if (count != size) {
+                throw new IOException("File \"" + file + "\" has less tasks than its header.");
+            }
+        }
+    }
+
+    /**
+     * Returns the header of a file with the specified numbers of tasks and slots and lengths of the title area
+     */
+    static byte[] header(int size, int capacity, int usedSlots, long titlesLength, long compactedLength) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(capacity).putInt(usedSlots).putInt(0)
+                .putLong(titlesLength).putLong(compactedLength);
+        return header.array();
+    }
+
+    /**
+     * Decodes the task from the record at the specified offset of the buffer
+     */
+    static Task decode(ByteBuffer buffer, int record, int titlesOffset) {
+        int flags = buffer.getInt(record + FLAGS_OFFSET);
+        int titleOffset = titlesOffset + buffer.getInt(record + 24);
+        byte[] titleBytes = new byte[buffer.getInt(record + 28)];
+        for (int i = 0; i < titleBytes.length; i++) {
+            titleBytes[i] = buffer.get(titleOffset + i);
+        }
+        String title = new String(titleBytes, StandardCharsets.UTF_8);
+        Task task;
+        if ((flags & REPEATED_FLAG) != 0) {
+            task = new Task(title, new Date(buffer.getLong(record)), new Date(buffer.getLong(record + 8)), buffer.getInt(record + 16));
+        } else {
+            task = new Task(title, new Date(buffer.getLong(record)));
+        }
+        task.setActive((flags & ACTIVE_FLAG) != 0);
+        return task;
+    }
+
+    /**
+     * Returns the offset of the record of the task at the specified position
+     */
+    private int record(int index) {
+        return HEADER_SIZE + (slots != null ? slots[index] : index) * RECORD_SIZE;
+    }
+
+    /**
+     * Not supported, the list is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public boolean add(Task task) {
+        throw new UnsupportedOperationException("Mapped task list is read-only.");
+    }
+
+    /**
+     * Not supported, the list is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public boolean remove(Task task) {
+        throw new UnsupportedOperationException("Mapped task list is read-only.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Task getTask(int index) {
+        if (index >= 0 && index < size()) {
+            return decode(buffer, record(index), titlesOffset);
+        } else {
+            throw new IndexOutOfBoundsException("Index out of range.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Notification times are computed from the records, only matching tasks are decoded.
+     */
+    public TaskList incoming(Date from, Date to) {
+        checkRange(from, to);
+        long fromTime = from.getTime();
+        long toTime = to.getTime();
+        TaskList incomingTasks = createInstance();
+        for (int i = 0; i < size(); i++) {
+            long next = nextTimeAfter(record(i), fromTime);
+            if (next > fromTime && next <= toTime) {
+                incomingTasks.add(getTask(i));
+            }
+        }
+        return incomingTasks;
+    }
+
+    /**
+     * Returns time of the next alert of the task in the specified record after the specified time,
+     * or -1 if there are no more alerts. Follows {@link Task#nextTimeAfter(long)}.
+     */
+    private long nextTimeAfter(int record, long current) {
+        return Task.nextTimeAfter(buffer.getLong(record), buffer.getLong(record + 8), buffer.getInt(record + 16),
+                (buffer.getInt(record + FLAGS_OFFSET) & ACTIVE_FLAG) != 0, current);
+    }
+
+    /**
+     * Returns a modifiable list for the results of queries, as this list is read-only
+     */
+    protected TaskList createInstance() {
+        return new ArrayTaskList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private int currentIndex = -1;
+
+            public boolean hasNext() {
+                return currentIndex < size() - 1;
+            }
+
+            public Task next() {
+                if (hasNext()) {
+                    return getTask(++currentIndex);
+                }
+                throw new NoSuchElementException("No more elements in the list.");
+            }
+        };
+    }
+
+    /**
+     * Replaces the list with an {@link ArrayTaskList} copy during serialization,
+     * as the mapped file is not a part of the list state.
+     *
+     * @return a copy of the list
+     */
+    private Object writeReplace() {
+        TaskList copy = new ArrayTaskList();
+        for (Task task : this) {
+            copy.add(task);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,379 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Single file of fixed-size pages, which are cached in a buffer pool and changed in atomic operations.
+ * Pages are read into the pool on access, the least recently used pages are evicted when the pool is full.
+ * Pages used by the current operation are pinned and stay in the pool until it ends.
+ * When an operation is committed, the images of the pages it changed are appended to a redo log
+ * ({@code <file>.log}) with a checksum and the log is forced to the disk. Changed pages are written to the file
+ * only when they are evicted or at a checkpoint, after which the log is cleared. On opening, the operations
+ * from the log are written to the file again; an operation torn by a crash is ignored.
+ * If an operation fails, the file refuses further access, it has to be opened again to be recovered from the log.
+ *
+ * Page 0 starts with the header of the page file: magic number, format version and the head of the list
+ * of free pages. The rest of page 0 belongs to the user of the file.
+ */
+class PageFile implements Closeable {
+    static final int PAGE_SIZE = 4096;
+    /**
+     * Number of bytes at the start of page 0 which belong to the page file
+     */
+    static final int HEADER_SIZE = 16;
+    static final String LOG_SUFFIX = ".log";
+    private static final int MAGIC = 0x54534B42;
+    private static final int VERSION = 1;
+    private static final int FREE_HEAD = 8;
+    /**
+     * Size of the log after which a checkpoint is made
+     */
+    private static final long CHECKPOINT_LOG_SIZE = 4 * 1024 * 1024;
+
+    private final File file;
+    private final FileChannel data;
+    private final FileChannel log;
+    private final int capacity;
+    private final Map<Integer, ByteBuffer> pool = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Pages changed since the last checkpoint, which are not written to the file yet
+     */
+    private final Set<Integer> dirty = new HashSet<>();
+    /**
+     * Pages changed by the current operation, in the order of their numbers
+     */
+    private final Set<Integer> changed = new TreeSet<>();
+    private final Set<Integer> pinned = new HashSet<>();
+    private int pageCount;
+    private boolean created;
+    private boolean failed;
+
+    /**
+     * Opens the page file, recovers it from the log and creates page 0, if the file is new.
+     *
+     * @param file     file of pages
+     * @param capacity number of pages in the buffer pool
+     * @throws IOException if an I/O error occurs or the file has another format
+     */
+    PageFile(File file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Entered value: capacity=" + capacity + " - not valid. Has to be > 0.");
+        }
+        this.file = file;
+        this.capacity = capacity;
+        data = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel logChannel = null;
+        try {
+            logChannel = FileChannel.open(new File(file.getPath() + LOG_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            log = logChannel;
+            recover();
+            pageCount = (int) (data.size() / PAGE_SIZE);
+            if (pageCount == 0) {
+                created = true;
+                ByteBuffer header = allocatePage();
+                header.putInt(0, MAGIC).putInt(4, VERSION).putInt(FREE_HEAD, 0);
+                commit();
+            } else {
+                ByteBuffer header = read(0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("File \"" + file + "\" is not a task store.");
+                }
+                release();
+            }
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            if (logChannel != null) {
+                logChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the file was created when it was opened.
+     *
+     * @return {@code true} if the file is new
+     */
+    boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Returns the page for reading and pins it until the end of the operation.
+     *
+     * @param page number of the page
+     * @return buffer with the content of the page
+     * @throws IOException if an I/O error occurs
+     */
+    ByteBuffer read(int page) throws IOException {
+        checkFailed();
+        if (page < 0 || page >= pageCount) {
+            throw new IOException("Page " + page + " is out of file \"" + file + "\".");
+        }
+        ByteBuffer buffer = pool.get(page);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(PAGE_SIZE);
+            long position = (long) page * PAGE_SIZE;
+            while (buffer.hasRemaining()) {
+                if (data.read(buffer, position + buffer.position()) <= 0) {
+                    throw new IOException("Page " + page + " of file \"" + file + "\" is truncated.");
+                }
+            }
+            buffer.clear();
+            pool.put(page, buffer);
+        }
+        pinned.add(page);
+        return buffer;
+    }
+
+    /**
+     * Returns the page for changing, it is logged when the operation is committed.
+     *
+     * @param page number of the page
+     * @return buffer with the content of the page
+     * @throws IOException if an I/O error occurs
+     */
+    ByteBuffer write(int page) throws IOException {
+        ByteBuffer buffer = read(page);
+        changed.add(page);
+        dirty.add(page);
+        return buffer;
+    }
+
+    /**
+     * Allocates a page filled with zeros, a free one if there is any.
+     *
+     * @return number of the page
+     * @throws IOException if an I/O error occurs
+     */
+    int allocate() throws IOException {
+        int free = read(0).getInt(FREE_HEAD);
+        if (free == 0) {
+            allocatePage();
+            return pageCount - 1;
+        }
+        ByteBuffer buffer = write(free);
+        write(0).putInt(FREE_HEAD, buffer.getInt(0));
+        Arrays.fill(buffer.array(), (byte) 0);
+        return free;
+    }
+
+    /**
+     * Returns the page to the list of free pages
+     *
+     * @param page number of the page
+     * @throws IOException if an I/O error occurs
+     */
+    void free(int page) throws IOException {
+        if (page <= 0) {
+            throw new IOException("Page " + page + " can't be freed.");
+        }
+        ByteBuffer buffer = write(page);
+        Arrays.fill(buffer.array(), (byte) 0);
+        buffer.putInt(0, read(0).getInt(FREE_HEAD));
+        write(0).putInt(FREE_HEAD, page);
+    }
+
+    /**
+     * Commits the operation: appends the images of the changed pages to the log and forces it to the disk.
+     * Makes a checkpoint if the log has grown too large.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void commit() throws IOException {
+        checkFailed();
+        try {
+            if (!changed.isEmpty()) {
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + changed.size() * (Integer.BYTES + PAGE_SIZE) + Long.BYTES);
+                record.putInt(changed.size());
+                for (int page : changed) {
+                    record.putInt(page);
+                    record.put(pool.get(page).array());
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record.array(), 0, record.position());
+                record.putLong(crc.getValue());
+                record.flip();
+                long position = log.size();
+                while (record.hasRemaining()) {
+                    log.write(record, position + record.position());
+                }
+                log.force(false);
+                changed.clear();
+                if (log.size() > CHECKPOINT_LOG_SIZE) {
+                    checkpoint();
+                }
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+        release();
+    }
+
+    /**
+     * Ends the operation, which changed nothing, and unpins its pages
+     */
+    void release() {
+        pinned.clear();
+        if (!changed.isEmpty()) {
+            failed = true;
+        }
+        evict();
+    }
+
+    /**
+     * Marks the file as failed after an operation which can't be committed
+     */
+    void fail() {
+        failed = true;
+        pinned.clear();
+    }
+
+    /**
+     * Writes the changed pages to the file, forces it to the disk and clears the log
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void checkpoint() throws IOException {
+        checkFailed();
+        try {
+            for (int page : dirty) {
+                writePage(page, pool.get(page));
+            }
+            data.force(true);
+            log.truncate(0);
+            log.force(true);
+            dirty.clear();
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a checkpoint, if the file hasn't failed, and closes it
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed && changed.isEmpty()) {
+                checkpoint();
+            }
+        } finally {
+            try {
+                data.close();
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    private void checkFailed() {
+        if (failed) {
+            throw new IllegalStateException("Operation on file \"" + file + "\" failed, the file has to be opened again.");
+        }
+    }
+
+    private ByteBuffer allocatePage() {
+        int page = pageCount++;
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        pool.put(page, buffer);
+        pinned.add(page);
+        changed.add(page);
+        dirty.add(page);
+        return buffer;
+    }
+
+    /**
+     * Evicts the least recently used pages, which are not pinned, until the pool fits its capacity.
+     * A changed page is written to the file, as it is already in the log.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Integer, ByteBuffer>> entries = pool.entrySet().iterator();
+        while (pool.size() > capacity && entries.hasNext()) {
+            Map.Entry<Integer, ByteBuffer> entry = entries.next();
+            int page = entry.getKey();
+            if (pinned.contains(page) || changed.contains(page)) {
+                continue;
+            }
+            if (dirty.contains(page)) {
+                try {
+                    writePage(page, entry.getValue());
+                } catch (IOException e) {
+                    continue;
+                }
+                dirty.remove(page);
+            }
+            entries.remove();
+        }
+    }
+
+    private void writePage(int page, ByteBuffer buffer) throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(buffer.array());
+        long position = (long) page * PAGE_SIZE;
+        while (source.hasRemaining()) {
+            data.write(source, position + source.position());
+        }
+    }
+
+    /**
+     * Writes the committed operations from the log to the file and clears the log
+     */
+    private void recover() throws IOException {
+        long size = log.size();
+        long position = 0;
+        while (position + Integer.BYTES < size) {
+            ByteBuffer count = ByteBuffer.allocate(Integer.BYTES);
+            readFully(log, count, position);
+            int pages = count.getInt(0);
+            long length = Integer.BYTES + (long) pages * (Integer.BYTES + PAGE_SIZE) + Long.BYTES;
+            if (pages <= 0 || position + length > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate((int) length);
+            readFully(log, record, position);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, (int) length - Long.BYTES);
+            if (record.getLong((int) length - Long.BYTES) != crc.getValue()) {
+                break;
+            }
+            for (int i = 0; i < pages; i++) {
+                int offset = Integer.BYTES + i * (Integer.BYTES + PAGE_SIZE);
+                int page = record.getInt(offset);
+                writePage(page, ByteBuffer.wrap(Arrays.copyOfRange(record.array(), offset + Integer.BYTES,
+                        offset + Integer.BYTES + PAGE_SIZE)));
+            }
+            position += length;
+        }
+        if (size > 0) {
+            data.force(true);
+            log.truncate(0);
+            log.force(true);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) <= 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+    }
+}
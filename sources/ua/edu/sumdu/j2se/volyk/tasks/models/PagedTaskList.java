@@ -0,0 +1,414 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The PagedTaskList class is a read-only task list over a file in the text format (see {@link TaskIO}),
+ * whose tasks are parsed only when they are requested.
+ * The tasks are divided into pages of {@link #PAGE_SIZE} tasks. The offsets of the pages in the file
+ * are kept in a sidecar index ({@code <file>.idx}), which is built by scanning the file for line breaks
+ * without parsing, when the index is missing or older than the file. The index consists of:
+ * - Header: magic number, format version, length and modification time of the file,
+ * number of tasks and number of tasks in a page
+ * Then for each page:
+ * - Offset of the line of its first task in the file
+ * - Number of that line
+ * A page is parsed when one of its tasks is requested, at most the specified number of pages is kept
+ * in memory, the least recently used page is evicted first.
+ * The file has to be in a charset where a line feed is a single byte, as it is read in the default charset.
+ */
+public class PagedTaskList extends TaskList implements Closeable {
+    private static final long serialVersionUID = -3120976415882417265L;
+    /**
+     * Suffix of the name of the index file
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+    /**
+     * Number of tasks in a page
+     */
+    public static final int PAGE_SIZE = 256;
+    /**
+     * Default maximum number of pages kept in memory
+     */
+    public static final int DEFAULT_MAX_PAGES = 64;
+    private static final int MAGIC = 0x54534B49;
+    private static final int VERSION = 1;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final transient Charset charset;
+    private transient FileChannel channel;
+    private final long fileLength;
+    private final long[] pageOffsets;
+    private final long[] pageLines;
+    private final int pageSize;
+    private final transient Map<Integer, Task[]> pages;
+    private final transient TaskTextCodec codec = new TaskTextCodec();
+
+    /**
+     * Opens the text file with the default number of pages kept in memory.
+     *
+     * @param file text file with tasks
+     * @throws IOException if an I/O error occurs or the charset of the file is not supported
+     */
+    public PagedTaskList(File file) throws IOException {
+        this(file, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * Opens the text file. The index is read, or built and saved if it is missing or outdated.
+     * If the index can't be saved, it is kept only in memory.
+     *
+     * @param file     text file with tasks
+     * @param maxPages maximum number of pages kept in memory
+     * @throws IOException if an I/O error occurs or the charset of the file is not supported
+     */
+    public PagedTaskList(File file, final int maxPages) throws IOException {
+        if (maxPages <= 0) {
+            throw new IllegalArgumentException("Entered value: maxPages=" + maxPages + " - not valid. Has to be > 0.");
+        }
+        this.file = file;
+        this.charset = Charset.defaultCharset();
+        if (!TextTaskLoader.splitsByBytes(charset)) {
+            throw new IOException("Charset " + charset + " is not supported for paging.");
+        }
+        this.pages = new LinkedHashMap<Integer, Task[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Task[]> eldest) {
+                return size() > maxPages;
+            }
+        };
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            fileLength = channel.size();
+            File indexFile = new File(file.getPath() + INDEX_SUFFIX);
+            Index index = readIndex(indexFile, fileLength, file.lastModified());
+            if (index == null) {
+                index = buildIndex();
+                try {
+                    writeIndex(indexFile, index);
+                } catch (IOException e) {
+                    // the index stays in memory, the file is scanned again next time
+                }
+            }
+            pageOffsets = Arrays.copyOf(index.offsets, index.pages);
+            pageLines = Arrays.copyOf(index.lines, index.pages);
+            size = (int) index.count;
+            pageSize = index.pageSize;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Not supported, the list is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public boolean add(Task task) {
+        throw new UnsupportedOperationException("Paged task list is read-only.");
+    }
+
+    /**
+     * Not supported, the list is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public boolean remove(Task task) {
+        throw new UnsupportedOperationException("Paged task list is read-only.");
+    }
+
+    /**
+     * {@inheritDoc}
+     * The page of the task is parsed, if it is not in memory.
+     *
+     * @throws UncheckedIOException if the page can't be read or parsed
+     */
+    public synchronized Task getTask(int index) {
+        if (index >= 0 && index < size()) {
+            int page = index / pageSize;
+            Task[] tasks = pages.get(page);
+            if (tasks == null) {
+                try {
+                    tasks = readPage(page);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                pages.put(page, tasks);
+            }
+            return tasks[index % pageSize];
+        } else {
+            throw new IndexOutOfBoundsException("Index out of range.");
+        }
+    }
+
+    /**
+     * Returns the number of pages kept in memory.
+     *
+     * @return the number of pages in memory
+     */
+    public synchronized int getLoadedPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Returns a modifiable list for the results of queries, as this list is read-only
+     */
+    protected TaskList createInstance() {
+        return new ArrayTaskList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private int currentIndex = -1;
+
+            public boolean hasNext() {
+                return currentIndex < size() - 1;
+            }
+
+            public Task next() {
+                if (hasNext()) {
+                    return getTask(++currentIndex);
+                }
+                throw new NoSuchElementException("No more elements in the list.");
+            }
+        };
+    }
+
+    /**
+     * Closes the file. Pages which are not in memory can't be read afterwards.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads and parses the lines of the page
+     */
+    private Task[] readPage(int page) throws IOException {
+        long start = pageOffsets[page];
+        long end = page + 1 < pageOffsets.length ? pageOffsets[page + 1] : fileLength;
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Page " + page + " of file \"" + file + "\" is too large.");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, start + bytes.position()) <= 0) {
+                throw new EOFException("File \"" + file + "\" is shorter than its index.");
+            }
+        }
+        bytes.flip();
+        CharBuffer decoded = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(bytes);
+        char[] chars = new char[decoded.remaining()];
+        decoded.get(chars);
+        Task[] tasks = new Task[Math.min(pageSize, size() - page * pageSize)];
+        int count = 0;
+        long lineNumber = pageLines[page];
+        int from = 0;
+        while (from < chars.length && count < tasks.length) {
+            int to = from;
+            while (to < chars.length && chars[to] != '\n' && chars[to] != '\r') {
+                to++;
+            }
+            try {
+                Task task = codec.parse(chars, from, to, (int) Math.min(lineNumber, Integer.MAX_VALUE));
+                if (task != null) {
+                    tasks[count++] = task;
+                }
+            } catch (ParseException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (to < chars.length && chars[to] == '\r' && to + 1 < chars.length && chars[to + 1] == '\n') {
+                to++;
+            }
+            from = to + 1;
+            lineNumber++;
+        }
+        if (count < tasks.length) {
+            throw new IOException("Index of file \"" + file + "\" doesn't match the file.");
+        }
+        return tasks;
+    }
+
+    /**
+     * Scans the file for lines which are not blank and remembers the offset and number of the first line of each page
+     */
+    private Index buildIndex() throws IOException {
+        Index index = new Index(PAGE_SIZE);
+        long lineStart = 0;
+        long lineNumber = 1;
+        boolean blank = true;
+        boolean afterCarriageReturn = false;
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = 0;
+        while (position < fileLength) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                throw new EOFException("File \"" + file + "\" is shorter than expected.");
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' && afterCarriageReturn) {
+                    lineStart = position + i + 1;
+                    afterCarriageReturn = false;
+                } else if (b == '\n' || b == '\r') {
+                    if (!blank) {
+                        index.add(lineStart, lineNumber);
+                    }
+                    blank = true;
+                    lineStart = position + i + 1;
+                    lineNumber++;
+                    afterCarriageReturn = b == '\r';
+                } else {
+                    afterCarriageReturn = false;
+                    if (blank && !isWhitespace(b)) {
+                        blank = false;
+                    }
+                }
+            }
+            position += read;
+        }
+        if (!blank) {
+            index.add(lineStart, lineNumber);
+        }
+        if (index.count > Integer.MAX_VALUE) {
+            throw new IOException("File \"" + file + "\" has too many tasks.");
+        }
+        return index;
+    }
+
+    /**
+     * Checks whether the byte is an ASCII character, for which {@link Character#isWhitespace(char)} is {@code true}
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= 0x09 && b <= 0x0D) || (b >= 0x1C && b <= 0x1F);
+    }
+
+    /**
+     * Reads the index, returns {@code null} if it is missing, damaged or belongs to another version of the file
+     */
+    private static Index readIndex(File indexFile, long fileLength, long lastModified) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fileLength
+                    || in.readLong() != lastModified) {
+                return null;
+            }
+            int count = in.readInt();
+            int pageSize = in.readInt();
+            if (count < 0 || pageSize <= 0) {
+                return null;
+            }
+            int pageCount = (int) ((count + (long) pageSize - 1) / pageSize);
+            if (indexFile.length() != 2 * Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES + (long) pageCount * 2 * Long.BYTES) {
+                return null;
+            }
+            Index index = new Index(pageSize);
+            for (int i = 0; i < pageCount; i++) {
+                index.addPage(in.readLong(), in.readLong());
+            }
+            index.count = count;
+            return index;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and renames it over the index file
+     */
+    private void writeIndex(File indexFile, Index index) throws IOException {
+        Path target = indexFile.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(file.lastModified());
+            out.writeInt((int) index.count);
+            out.writeInt(index.pageSize);
+            for (int i = 0; i < index.pages; i++) {
+                out.writeLong(index.offsets[i]);
+                out.writeLong(index.lines[i]);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Offsets and numbers of the first lines of pages, collected while the file is scanned or the index is read
+     */
+    private static class Index {
+        private final int pageSize;
+        private long[] offsets = new long[16];
+        private long[] lines = new long[16];
+        private int pages;
+        private long count;
+
+        private Index(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * Counts the task in the line, which starts a new page after each {@code pageSize} tasks
+         */
+        private void add(long offset, long line) {
+            if (count % pageSize == 0) {
+                addPage(offset, line);
+            }
+            count++;
+        }
+
+        private void addPage(long offset, long line) {
+            if (pages == offsets.length) {
+                offsets = Arrays.copyOf(offsets, pages * 2);
+                lines = Arrays.copyOf(lines, pages * 2);
+            }
+            offsets[pages] = offset;
+            lines[pages] = line;
+            pages++;
+        }
+    }
+
+    /**
+     * Replaces the list with an {@link ArrayTaskList} copy during serialization,
+     * as the file is not a part of the list state.
+     *
+     * @return a copy of the list
+     */
+    private Object writeReplace() {
+        TaskList copy = new ArrayTaskList();
+        for (Task task : this) {
+            copy.add(task);
+        }
+        return copy;
+    }
+}
@@ -1,15 +1,42 @@
 package ua.edu.sumdu.j2se.volyk.tasks.models;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 /**
  * The Task class represents the “task” data type,
  * which contains information about the essence of the task,
  * its status (active / inactive), the notification time,
  * the time interval through which the notification about it should be repeated.
+ * The task is serialized in a compact format (see {@link #writeCompact(DataOutput, Map)}),
+ * tasks serialized with the default format of the former versions are read as well.
+ * Task lists which don't keep tasks as objects hand out views, which override the accessors of the task;
+ * the task works only through its accessors, so that a view is equal to a task with the same values.
  */
 public class Task implements Cloneable, Serializable {
+    private static final long serialVersionUID = 5273970526521829135L;
+    /**
+     * No fields are serialized by default, the task is written by {@link #writeObject(ObjectOutputStream)}
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {};
+    private static final int ACTIVE_FLAG = 1;
+    private static final int REPEATED_FLAG = 2;
+    /**
+     * The title is a reference to a title written earlier
+     */
+    private static final int SHARED_TITLE_FLAG = 4;
     private String title;
     private boolean active;
     private Date startTime;
@@ -17,6 +44,12 @@ public class Task implements Cloneable, Serializable {
     private int repeatInterval;
     private boolean repeated;
 
+    /**
+     * Constructs a task without values for a view, which overrides the accessors.
+     */
+    Task() {
+    }
+
     /**
      * Constructs a new Task with the specified title and time for one-time task.
      * New created task is considered inactive.
@@ -175,6 +208,20 @@ public class Task implements Cloneable, Serializable {
         return repeatInterval;
     }
 
+    /**
+     * Returns the start time of the alert in milliseconds
+     */
+    long getStartMillis() {
+        return startTime.getTime();
+    }
+
+    /**
+     * Returns the end time of the alert in milliseconds
+     */
+    long getEndMillis() {
+        return endTime.getTime();
+    }
+
     /**
      * Returns {@code true}  if task is repeatable, otherwise {@code false} .
      *
@@ -187,34 +234,90 @@ public class Task implements Cloneable, Serializable {
     /**
      * Gets time of the alert after the specified time(not including it).
      * If there are no more alerts after the specified time or the task
-     * is inactive, the result would be -1.
+     * is inactive, the result would be {@code null}.
      *
      * @param current the specified time after which it is needed to find
      *                time of the alert
      * @return time of tne next alert
      */
     public Date nextTimeAfter(Date current) {
-        if (current.before(new Date(0))) {
+        long nextTime = nextTimeAfter(current.getTime());
+        return nextTime != -1 ? new Date(nextTime) : null;
+    }
+
+    /**
+     * Gets time of the alert after the specified time(not including it) in milliseconds.
+     * If there are no more alerts after the specified time or the task
+     * is inactive, the result would be -1.
+     * Unlike {@link #nextTimeAfter(Date)} does not create any objects.
+     *
+     * @param current the specified time in milliseconds after which it is needed to find
+     *                time of the alert
+     * @return time of tne next alert in milliseconds or -1
+     */
+    public long nextTimeAfter(long current) {
+        if (current < 0) {
             throw new IllegalArgumentException("Entered value: current=" + current + " - not valid. Has to be >= 0.");
-        } else if (!current.before(endTime) || !isActive()) {
-            return null;
-        } else if (current.before(startTime)) {
-            return startTime;
-        } else {
-            Date nextTime = new Date(current.getTime() + repeatInterval * 60 * 1000 - (current.getTime() - startTime.getTime()) % (repeatInterval * 60 * 1000));
-            return (!nextTime.after(endTime)) ? nextTime : null;
         }
+        return nextTimeAfter(getStartMillis(), getEndMillis(), getRepeatInterval(), isActive(), current);
+    }
+
+    /**
+     * Returns an iterator over times of all alerts of the task after {@code from} (exclusive)
+     * and not later than {@code to} (inclusive), in milliseconds and in ascending order.
+     * Times are computed one by one when they are requested.
+     *
+     * @param from start time of the interval in milliseconds
+     * @param to   end time of the interval in milliseconds
+     * @return an iterator over times of the alerts in the interval
+     */
+    public PrimitiveIterator.OfLong occurrences(long from, long to) {
+        if (from < 0 || to < 0) {
+            throw new IllegalArgumentException("Entered values: from=" + from + ", to=" + to + " - not valid. Have to be >= 0.");
+        }
+        long first = nextTimeAfter(from);
+        long last = Math.min(to, getEndMillis());
+        long interval = getRepeatInterval() * 60L * 1000;
+        return new PrimitiveIterator.OfLong() {
+            private long nextTime = (first != -1 && first <= last) ? first : -1;
+
+            public boolean hasNext() {
+                return nextTime != -1;
+            }
 
-		/*if (current < 0) {
-			throw new IllegalArgumentException("Entered value: current=" + current + " - not valid. Has to be >= 0.");
-		} else if (current >= endTime || !isActive()) {
-			return -1;
-		} else if (current < startTime) {
-			return startTime;
-		} else {
-			int nextTime = current + repeatInterval - (current - startTime) % repeatInterval;
-			return (nextTime <= endTime) ? nextTime : -1;
-		}*/
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more alerts in the interval.");
+                }
+                long result = nextTime;
+                nextTime = (interval > 0 && last - result >= interval) ? result + interval : -1;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Gets time of the alert after the specified time(not including it) for a task
+     * with the specified times, interval in minutes and activity, or -1 if there are no more alerts.
+     * Used by task lists that do not keep tasks as objects.
+     *
+     * @param start    the start time of the task alert
+     * @param end      the end time of the task alert
+     * @param interval the repetition interval in minutes, 0 for a one-time task
+     * @param active   whether the task is active
+     * @param current  the specified time after which it is needed to find time of the alert
+     * @return time of tne next alert in milliseconds or -1
+     */
+    static long nextTimeAfter(long start, long end, int interval, boolean active, long current) {
+        if (current >= end || !active) {
+            return -1;
+        } else if (current < start) {
+            return start;
+        } else {
+            long intervalInMillis = interval * 60L * 1000;
+            long nextTime = current + intervalInMillis - (current - start) % intervalInMillis;
+            return (nextTime <= end) ? nextTime : -1;
+        }
     }
 
     /**
@@ -224,12 +327,12 @@ public class Task implements Cloneable, Serializable {
      */
     public int hashCode() {
         int result = 1;
-        result = 31 * result + startTime.hashCode();
-        result = 31 * result + endTime.hashCode();
-        result = 31 * result + repeatInterval;
-        result = 31 * result + (repeated ? 1 : 0);
-        result = 31 * result + (active ? 1 : 0);
-        result = 31 * result + title.hashCode();
+        result = 31 * result + Long.hashCode(getStartMillis());
+        result = 31 * result + Long.hashCode(getEndMillis());
+        result = 31 * result + getRepeatInterval();
+        result = 31 * result + (isRepeated() ? 1 : 0);
+        result = 31 * result + (isActive() ? 1 : 0);
+        result = 31 * result + getTitle().hashCode();
         return result;
     }
 
@@ -244,16 +347,16 @@ public class Task implements Cloneable, Serializable {
         if (this == obj) {
             return true;
         }
-        if (obj == null || getClass() != obj.getClass()) {
+        if (!(obj instanceof Task)) {
             return false;
         }
         Task other = (Task) obj;
-        if (!title.equals(other.title)
-                || (active != other.active)
-                || (!startTime.equals(other.startTime))
-                || (!endTime.equals(other.endTime))
-                || (repeatInterval != other.repeatInterval)
-                || (repeated != other.repeated)) {
+        if (!getTitle().equals(other.getTitle())
+                || (isActive() != other.isActive())
+                || (getStartMillis() != other.getStartMillis())
+                || (getEndMillis() != other.getEndMillis())
+                || (getRepeatInterval() != other.getRepeatInterval())
+                || (isRepeated() != other.isRepeated())) {
             return false;
         }
         return true;
@@ -288,4 +391,153 @@ public class Task implements Cloneable, Serializable {
             return "Task \"" + getTitle() + "\" is inactive";
         }
     }
+
+    /**
+     * Writes the task in the compact format: flags, start time in milliseconds, for a repetitive task
+     * the time from the start to the end and interval, then the title in UTF-8 prefixed with its length,
+     * or the number of an equal title written earlier. Numbers are written in 7-bit groups, so that small ones
+     * take fewer bytes.
+     *
+     * @param out    output for the task
+     * @param titles numbers of the titles written earlier, to which the title is added, or {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    void writeCompact(DataOutput out, Map<String, Integer> titles) throws IOException {
+        int flags = (isActive() ? ACTIVE_FLAG : 0) | (isRepeated() ? REPEATED_FLAG : 0);
+        String title = getTitle();
+        Integer shared = titles == null ? null : titles.get(title);
+        if (shared != null) {
+            flags |= SHARED_TITLE_FLAG;
+        } else if (titles != null) {
+            titles.put(title, titles.size());
+        }
+        out.writeByte(flags);
+        long start = getStartMillis();
+        writeVarLong(out, start);
+        if (isRepeated()) {
+            writeVarLong(out, getEndMillis() - start);
+            writeVarLong(out, getRepeatInterval());
+        }
+        if (shared != null) {
+            writeVarLong(out, shared);
+        } else {
+            byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a task written by {@link #writeCompact(DataOutput, Map)}.
+     *
+     * @param in     input of the task
+     * @param titles titles read earlier, to which the title is added, or {@code null}
+     * @return the read task
+     * @throws IOException if an I/O error occurs or the data are not valid
+     */
+    static Task readCompact(DataInput in, List<String> titles) throws IOException {
+        int flags = in.readUnsignedByte();
+        long start = readVarLong(in);
+        long end = start;
+        long interval = 0;
+        if ((flags & REPEATED_FLAG) != 0) {
+            end = start + readVarLong(in);
+            interval = readVarLong(in);
+            if (end < start || interval > Integer.MAX_VALUE) {
+                throw new InvalidObjectException("Time of the task is not valid.");
+            }
+        }
+        String title;
+        if ((flags & SHARED_TITLE_FLAG) != 0) {
+            long number = readVarLong(in);
+            if (titles == null || number >= titles.size()) {
+                throw new InvalidObjectException("Shared title " + number + " is not valid.");
+            }
+            title = titles.get((int) number);
+        } else {
+            long length = readVarLong(in);
+            if (length == 0 || length > Integer.MAX_VALUE) {
+                throw new InvalidObjectException("Entered value of 'title' is not valid. Can't be empty.");
+            }
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            title = new String(bytes, StandardCharsets.UTF_8);
+            if (titles != null) {
+                titles.add(title);
+            }
+        }
+        Task task;
+        try {
+            if ((flags & REPEATED_FLAG) != 0) {
+                task = new Task(title, new Date(start), new Date(end), (int) interval);
+            } else {
+                task = new Task(title, new Date(start));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+        task.setActive((flags & ACTIVE_FLAG) != 0);
+        return task;
+    }
+
+    /**
+     * Writes the non-negative number in groups of 7 bits, the lowest first, the high bit of a byte
+     * is set if more bytes follow
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads the number written by {@link #writeVarLong(DataOutput, long)}
+     */
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new InvalidObjectException("Number " + value + " is not valid. Has to be >= 0.");
+                }
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Number is too long.");
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        writeCompact(out, null);
+    }
+
+    /**
+     * Reads the task in the compact format or in the default format of the former versions
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        if (fields.getObjectStreamClass().getField("title") != null) {
+            title = (String) fields.get("title", null);
+            active = fields.get("active", false);
+            startTime = (Date) fields.get("startTime", null);
+            endTime = (Date) fields.get("endTime", null);
+            repeatInterval = fields.get("repeatInterval", 0);
+            repeated = fields.get("repeated", false);
+            if (title == null || startTime == null || endTime == null) {
+                throw new InvalidObjectException("Task has no title or time.");
+            }
+        } else {
+            Task task = readCompact(in, null);
+            title = task.title;
+            active = task.active;
+            startTime = task.startTime;
+            endTime = task.endTime;
+            repeatInterval = task.repeatInterval;
+            repeated = task.repeated;
+        }
+    }
 }
\ No newline at end of file
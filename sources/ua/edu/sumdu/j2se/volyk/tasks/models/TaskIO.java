@@ -1,26 +1,38 @@
 package ua.edu.sumdu.j2se.volyk.tasks.models;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 /**
  * Realizes methods for writing and reading task lists in different formats.
- * The format of the list of tasks in binary form:
+ * The format of the list of tasks in binary form (version 2), where integers are written
+ * as variable-length quantities of 7 bits per byte (signed ones in zigzag encoding):
+ * - Magic number and format version
  * - Number of tasks
  * Then for each task:
- * - Length of the name
- * - Name
- * - Activity: 0/1
- * - Repetition interval
+ * - Flags: activity and repetition
+ * - Length of the title in bytes
+ * - Title in UTF-8
  * If repeating
- * - The start time
- * - The end time
+ * - Repetition interval
+ * - The start time as the difference with the time of the previous task
+ * - Duration: the end time minus the start time
  * If not repeated
- *  - The time of execution
+ * - The time of execution as the difference with the time of the previous task
+ *
+ * Binary streams in the previous format (without a header: one byte with the number of tasks, then
+ * for each task one byte with the length of the title, the title in UTF-16, activity, repetition
+ * interval and times as {@code long}s) are still read.
  *
  *  The text format looks like this:
  * "Task title" at [06/24/2014 18: 00: 13000];
@@ -35,14 +47,21 @@ import java.util.regex.Pattern;
  * more than 1) through a space. For example, 10000 seconds will look like
  * [2 hours 46 minutes 40 seconds].
  * 5. After each task there is a semicolon, after the last - a point.
+ * Double quotes in the title are doubled. The text format is encoded and decoded by {@link TaskTextCodec}.
  */
 public class TaskIO {
-    private static final int HOURS_IN_DAY = 24;
-    private static final int MINUTES_IN_HOUR = 60;
-    private static final int SECONDS_IN_MINUTE = 60;
-    private static final int SECONDS_IN_HOUR = MINUTES_IN_HOUR * SECONDS_IN_MINUTE;
-    private static final int SECONDS_IN_DAY = HOURS_IN_DAY * SECONDS_IN_HOUR;
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss.SSS]");
+    private static final byte[] BINARY_MAGIC = {(byte) 0x89, 'T', 'S', 'K'};
+    private static final int BINARY_VERSION = 2;
+    private static final int ACTIVE_FLAG = 1;
+    private static final int REPEATED_FLAG = 2;
+    /**
+     * Limit of presizing the list by the number of tasks from the header, in case the header is corrupted
+     */
+    private static final int MAX_PRESIZE = 1 << 20;
+    /**
+     * Suffix of the log of a patch of a mapped file, which exists while the patch is applied
+     */
+    static final String PATCH_LOG_SUFFIX = ".patch";
 
     /**
      * Writes tasks from the list into a binary stream
@@ -52,56 +71,172 @@ public class TaskIO {
      * @throws IOException if an I/O error occurs.
      */
     public static void write(TaskList tasks, OutputStream out) throws IOException {
-        try (DataOutputStream stream = new DataOutputStream(out)) {
-            stream.write(tasks.size());
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(out))) {
+            stream.write(BINARY_MAGIC);
+            writeVarLong(stream, BINARY_VERSION);
+            writeVarLong(stream, tasks.size());
+            long previousTime = 0;
             for (Task t : tasks) {
-                stream.write(t.getTitle().length());
-                stream.writeChars(t.getTitle());
-                stream.writeBoolean(t.isActive());
-                stream.writeInt(t.getRepeatInterval());
+                byte[] title = t.getTitle().getBytes(StandardCharsets.UTF_8);
+                stream.writeByte((t.isActive() ? ACTIVE_FLAG : 0) | (t.isRepeated() ? REPEATED_FLAG : 0));
+                writeVarLong(stream, title.length);
+                stream.write(title);
+                long start = t.getStartTime().getTime();
                 if (t.isRepeated()) {
-                    stream.writeLong(t.getStartTime().getTime());
-                    stream.writeLong(t.getEndTime().getTime());
+                    writeVarLong(stream, t.getRepeatInterval());
+                    writeVarLong(stream, zigzag(start - previousTime));
+                    writeVarLong(stream, zigzag(t.getEndTime().getTime() - start));
                 } else {
-                    stream.writeLong(t.getTime().getTime());
+                    writeVarLong(stream, zigzag(start - previousTime));
                 }
+                previousTime = start;
             }
         }
     }
 
     /**
-     * Reads tasks from a binary stream in task list
+     * Reads tasks from a binary stream in task list.
+     * The format version is detected from the header, streams in the previous format without a header are read as well.
      *
      * @param tasks list of tasks to be read
      * @param in    input stream for list of tasks
-     * @throws IOException if an I/O error occurs.
+     * @throws IOException if an I/O error occurs or the data is not valid.
      */
     public static void read(TaskList tasks, InputStream in) throws IOException {
-        try (DataInputStream stream = new DataInputStream(in)) {
-            int size = stream.read();
-            for (int i = 0; i < size; i++) {
-                StringBuilder title = new StringBuilder();
-                int titleLength = stream.read();
-                for (int j = 0; j < titleLength; j++) {
-                    title.append(stream.readChar());
-                }
-                boolean isActive = stream.readBoolean();
-                int interval = stream.readInt();
-                Task task;
-                if (interval > 0) {
-                    Date start = new Date(stream.readLong());
-                    Date end = new Date(stream.readLong());
-                    task = new Task(title.toString(), start, end, interval);
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(in))) {
+            stream.mark(BINARY_MAGIC.length);
+            byte[] magic = new byte[BINARY_MAGIC.length];
+            int length = 0;
+            int count;
+            while (length < magic.length && (count = stream.read(magic, length, magic.length - length)) > 0) {
+                length += count;
+            }
+            stream.reset();
+            if (length == magic.length && Arrays.equals(magic, BINARY_MAGIC)) {
+                stream.skipBytes(magic.length);
+                readVersion2(tasks, stream);
+            } else {
+                readVersion1(tasks, stream);
+            }
+        }
+    }
+
+    /**
+     * Reads tasks in the binary format with a header
+     */
+    private static void readVersion2(TaskList tasks, DataInputStream stream) throws IOException {
+        long version = readVarLong(stream);
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported version of binary task format: " + version + ".");
+        }
+        long size = readVarLong(stream);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid number of tasks: " + size + ".");
+        }
+        if (tasks instanceof ArrayTaskList) {
+            ((ArrayTaskList) tasks).ensureCapacity(tasks.size() + (int) Math.min(size, MAX_PRESIZE));
+        }
+        long previousTime = 0;
+        for (long i = 0; i < size; i++) {
+            int flags = stream.readUnsignedByte();
+            long titleLength = readVarLong(stream);
+            if (titleLength < 0 || titleLength > Integer.MAX_VALUE) {
+                throw new IOException("Invalid length of title: " + titleLength + ".");
+            }
+            byte[] title = new byte[(int) titleLength];
+            stream.readFully(title);
+            Task task;
+            try {
+                if ((flags & REPEATED_FLAG) != 0) {
+                    long interval = readVarLong(stream);
+                    long start = previousTime + unzigzag(readVarLong(stream));
+                    long end = start + unzigzag(readVarLong(stream));
+                    if (interval > Integer.MAX_VALUE) {
+                        throw new IOException("Invalid repetition interval: " + interval + ".");
+                    }
+                    task = new Task(new String(title, StandardCharsets.UTF_8), new Date(start), new Date(end), (int) interval);
+                    previousTime = start;
                 } else {
-                    Date time = new Date(stream.readLong());
-                    task = new Task(title.toString(), time);
+                    long time = previousTime + unzigzag(readVarLong(stream));
+                    task = new Task(new String(title, StandardCharsets.UTF_8), new Date(time));
+                    previousTime = time;
                 }
-                task.setActive(isActive);
-                tasks.add(task);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid task in binary stream: " + e.getMessage(), e);
             }
+            task.setActive((flags & ACTIVE_FLAG) != 0);
+            tasks.add(task);
         }
     }
 
+    /**
+     * Reads tasks in the previous binary format without a header
+     */
+    private static void readVersion1(TaskList tasks, DataInputStream stream) throws IOException {
+        int size = stream.read();
+        for (int i = 0; i < size; i++) {
+            StringBuilder title = new StringBuilder();
+            int titleLength = stream.read();
+            for (int j = 0; j < titleLength; j++) {
+                title.append(stream.readChar());
+            }
+            boolean isActive = stream.readBoolean();
+            int interval = stream.readInt();
+            Task task;
+            if (interval > 0) {
+                Date start = new Date(stream.readLong());
+                Date end = new Date(stream.readLong());
+                task = new Task(title.toString(), start, end, interval);
+            } else {
+                Date time = new Date(stream.readLong());
+                task = new Task(title.toString(), time);
+            }
+            task.setActive(isActive);
+            tasks.add(task);
+        }
+    }
+
+    /**
+     * Writes a non-negative number as a variable-length quantity: 7 bits per byte,
+     * starting with the lowest ones, the highest bit of a byte is set if more bytes follow
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a number written by {@link #writeVarLong(DataOutput, long)}
+     */
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number in binary stream.");
+    }
+
+    /**
+     * Maps a signed number to a non-negative one, so that numbers with small absolute values have short encodings
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #zigzag(long)}
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
     /**
      * Writes tasks from a list to a binary file
      *
@@ -129,179 +264,377 @@ public class TaskIO {
     }
 
     /**
-     * Writes tasks from the list to the character stream
+     * Writes tasks from a list to a file with record slots of fixed width,
+     * which can be opened without reading it by {@link #openMapped(File)}.
+     * The format is described in {@link MappedTaskList}. The file is written atomically like
+     * {@link #writeTextAtomically(TaskList, File)}.
      *
      * @param tasks list of tasks to be written
-     * @param out   output character stream
+     * @param file  output file
      * @throws IOException if an I/O error occurs.
      */
-    public static void write(TaskList tasks, Writer out) throws IOException {
-        try (BufferedWriter bf = new BufferedWriter(out)) {
-            int i = 0;
-            for (Task t : tasks) {
-                String s = taskToString(t) + ((i < tasks.size() - 1) ? ";" : ".");
-                bf.write(s);
-                if (i < tasks.size() - 1) {
-                    bf.newLine();
+    public static void writeMapped(TaskList tasks, File file) throws IOException {
+        Task[] array = new Task[tasks.size()];
+        int i = 0;
+        for (Task t : tasks) {
+            array[i++] = t;
+        }
+        writeMapped(array, file, array.length);
+    }
+
+    /**
+     * Writes the patch of a list to its file in the format of {@link MappedTaskList}.
+     * A full patch replaces the file atomically like {@link #writeTextAtomically(TaskList, File)}.
+     * A partial patch is first written with a checksum to a log next to the file ({@code <file>.patch}),
+     * which is forced to the disk, and only then to the file; the log is deleted afterwards.
+     * If a crash interrupts the patch, the file is patched from the log when it is opened or patched next time,
+     * a log torn by a crash is ignored, as the file wasn't changed yet.
+     * A partial patch is written only to the file with the header the list had after the previous patch,
+     * so that patches skipped after a failure or taken for another file are not applied.
+     *
+     * @param patch patch taken by {@link ArrayTaskList#takeMappedPatch()}
+     * @param file  file of the list
+     * @throws IOException if an I/O error occurs or the file is not the one the previous patch was written to
+     */
+    public static void writeMapped(MappedPatch patch, File file) throws IOException {
+        if (patch.isFull()) {
+            writeMapped(patch.getTasks(), file, patch.getCapacity());
+            return;
+        }
+        recoverMapped(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(MappedTaskList.HEADER_SIZE);
+            if (!readFully(channel, header, 0) || !Arrays.equals(header.array(), patch.getBase())) {
+                throw new IOException("File \"" + file + "\" has changed since the previous patch of the list.");
+            }
+            long[] offsets = patch.getOffsets();
+            byte[][] data = patch.getData();
+            int length = Integer.BYTES + Long.BYTES;
+            for (byte[] bytes : data) {
+                length += Long.BYTES + Integer.BYTES + bytes.length;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.putInt(data.length);
+            for (int i = 0; i < data.length; i++) {
+                record.putLong(offsets[i]).putInt(data[i].length).put(data[i]);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, record.position());
+            record.putLong(crc.getValue());
+            record.flip();
+            Path log = patchLog(file);
+            try (FileChannel logChannel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (record.hasRemaining()) {
+                    logChannel.write(record);
                 }
-                i++;
+                logChannel.force(true);
             }
+            applyPatch(channel, record.array());
+            Files.delete(log);
         }
     }
 
     /**
-     * Reads tasks from a character stream in task list
+     * Completes the patch of a mapped file interrupted by a crash, if its log exists and is not torn, and deletes the log.
      *
-     * @param tasks list of tasks to be read
-     * @param in    input character stream
-     * @throws IOException    if an I/O error occurs
-     * @throws ParseException if date cannot be parsed
+     * @param file mapped file
+     * @throws IOException if an I/O error occurs
      */
-    public static void read(TaskList tasks, Reader in) throws IOException, ParseException {
-        try (BufferedReader bf = new BufferedReader(in)) {
-            String line;
-            while ((line = bf.readLine()) != null) {
-                String title = line.substring(line.indexOf("\"") + 1, line.lastIndexOf("\""));
-                boolean isActive = !line.contains("inactive");
-                Task task;
-                int indexAfterTitle = title.length() + 2;
-                int startTimeBeginIndex = line.indexOf("[", indexAfterTitle);
-                int startTimeEndIndex = line.indexOf("]", indexAfterTitle);
-                String startTime = line.substring(startTimeBeginIndex, startTimeEndIndex + 1);
-                Date start = DATE_FORMAT.parse(startTime);
+    static void recoverMapped(File file) throws IOException {
+        Path log = patchLog(file);
+        if (!Files.exists(log)) {
+            return;
+        }
+        byte[] record = Files.readAllBytes(log);
+        if (isPatchRecord(record)) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                applyPatch(channel, record);
+            }
+        }
+        Files.delete(log);
+    }
 
-                if (line.indexOf("from", indexAfterTitle) >= 0) {
-                    int endTimeBeginIndex = line.indexOf("[", startTimeEndIndex);
-                    int endTimeEndIndex = line.indexOf("]", endTimeBeginIndex);
-                    String endTime = line.substring(endTimeBeginIndex, endTimeEndIndex + 1);
-                    Date end = DATE_FORMAT.parse(endTime);
+    private static Path patchLog(File file) {
+        return new File(file.getPath() + PATCH_LOG_SUFFIX).toPath();
+    }
 
-                    int intervalBeginIndex = line.lastIndexOf("[");
-                    int intervalEndIndex = line.lastIndexOf("]");
-                    String intervalStr = line.substring(intervalBeginIndex + 1, intervalEndIndex);
-                    int interval = stringToInterval(intervalStr);
+    /**
+     * Checks whether the log record of a patch is complete and its checksum matches
+     */
+    private static boolean isPatchRecord(byte[] record) {
+        if (record.length < Integer.BYTES + Long.BYTES) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int count = buffer.getInt();
+        long end = record.length - Long.BYTES;
+        for (int i = 0; i < count; i++) {
+            if (buffer.position() + Long.BYTES + Integer.BYTES > end) {
+                return false;
+            }
+            buffer.getLong();
+            int length = buffer.getInt();
+            if (length < 0 || buffer.position() + (long) length > end) {
+                return false;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        if (buffer.position() != end) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, (int) end);
+        return buffer.getLong() == crc.getValue();
+    }
 
-                    task = new Task(title, start, end, interval);
-                } else {
-                    task = new Task(title, start);
+    /**
+     * Writes the bytes from the log record of a patch at their offsets and forces the file to the disk
+     */
+    private static void applyPatch(FileChannel channel, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            ByteBuffer bytes = ByteBuffer.wrap(record, buffer.position(), length).slice();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, offset + bytes.position());
+            }
+            buffer.position(buffer.position() + length);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Writes tasks atomically to a file with the specified number of record slots, the unused ones are filled with zeros
+     */
+    private static void writeMapped(Task[] tasks, File file, int slots) throws IOException {
+        byte[][] titles = new byte[tasks.length][];
+        long titlesLength = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            titles[i] = tasks[i].getTitle().getBytes(StandardCharsets.UTF_8);
+            titlesLength += titles[i].length;
+        }
+        if (file.exists()) {
+            recoverMapped(file);
+        }
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(out));
+                stream.write(MappedTaskList.header(tasks.length, slots, tasks.length, titlesLength, titlesLength));
+                int titleOffset = 0;
+                for (int i = 0; i < tasks.length; i++) {
+                    Task t = tasks[i];
+                    int flags = (t.isActive() ? MappedTaskList.ACTIVE_FLAG : 0)
+                            | (t.isRepeated() ? MappedTaskList.REPEATED_FLAG : 0);
+                    stream.writeLong(t.getStartTime().getTime());
+                    stream.writeLong(t.getEndTime().getTime());
+                    stream.writeInt(t.getRepeatInterval());
+                    stream.writeInt(flags);
+                    stream.writeInt(titleOffset);
+                    stream.writeInt(titles[i].length);
+                    titleOffset += titles[i].length;
+                }
+                stream.write(new byte[(slots - tasks.length) * MappedTaskList.RECORD_SIZE]);
+                for (byte[] title : titles) {
+                    stream.write(title);
                 }
-                task.setActive(isActive);
-                tasks.add(task);
+                stream.flush();
+                out.getFD().sync();
             }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
         }
     }
 
     /**
-     * Writes tasks from the list to the character file
+     * Saves the changes of the list since it was persisted last time to its file in the format of
+     * {@link MappedTaskList}: takes the patch of the list by {@link ArrayTaskList#takeMappedPatch()} and writes it
+     * by {@link #writeMapped(MappedPatch, File)}. If the write fails, the next save writes the whole file.
      *
-     * @param tasks list of tasks to be written
-     * @param file  output character file
+     * @param tasks list of tasks, which was written to the file or read from it
+     * @param file  file of the list
+     * @return the number of written records, or -1 if the whole file is written
      * @throws IOException if an I/O error occurs
      */
-    public static void writeText(TaskList tasks, File file) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            write(tasks, writer);
+    public static int writeMappedDelta(ArrayTaskList tasks, File file) throws IOException {
+        MappedPatch patch = tasks.takeMappedPatch();
+        try {
+            writeMapped(patch, file);
+        } catch (IOException e) {
+            tasks.forgetMappedFile();
+            throw e;
         }
+        return patch.isFull() ? -1 : patch.getRecordCount();
     }
 
     /**
-     * Reads tasks from a character file in task list
+     * Reads tasks from a file in the format of {@link MappedTaskList} into an empty list, which tracks
+     * the slots of the tasks in the file afterwards, so that its changes are saved by patches of the file.
      *
-     * @param tasks list of tasks to be read
-     * @param file  input character file
-     * @throws IOException    if an I/O error occurs
-     * @throws ParseException if date cannot be parsed
+     * @param tasks empty list for the tasks
+     * @param file  input file
+     * @throws IOException if an I/O error occurs or the file has another format
      */
-    public static void readText(TaskList tasks, File file) throws IOException, ParseException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            read(tasks, reader);
+    public static void readMapped(ArrayTaskList tasks, File file) throws IOException {
+        if (tasks.size() > 0) {
+            throw new IllegalArgumentException("Tasks can be read only into an empty list.");
+        }
+        recoverMapped(file);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (buffer.limit() < MappedTaskList.HEADER_SIZE || buffer.getInt(0) != MappedTaskList.MAGIC
+                || buffer.getInt(4) != MappedTaskList.VERSION) {
+            throw new IOException("File \"" + file + "\" is not a mapped task file.");
+        }
+        int size = buffer.getInt(8);
+        int capacity = buffer.getInt(12);
+        int usedSlots = buffer.getInt(16);
+        long titlesLength = buffer.getLong(24);
+        long titlesOffset = MappedTaskList.HEADER_SIZE + (long) capacity * MappedTaskList.RECORD_SIZE;
+        if (size < 0 || usedSlots < size || capacity < usedSlots || titlesLength < 0
+                || titlesOffset + titlesLength > buffer.limit()) {
+            throw new IOException("File \"" + file + "\" has a corrupted header.");
+        }
+        tasks.ensureCapacity(size);
+        int[] slots = new int[Math.max(size, 8)];
+        try {
+            for (int slot = 0; slot < usedSlots; slot++) {
+                int record = MappedTaskList.HEADER_SIZE + slot * MappedTaskList.RECORD_SIZE;
+                if ((buffer.getInt(record + MappedTaskList.FLAGS_OFFSET) & MappedTaskList.REMOVED_FLAG) == 0) {
+                    if (tasks.size() == size) {
+                        throw new IOException("File \"" + file + "\" has more tasks than its header.");
+                    }
+                    slots[tasks.size()] = slot;
+                    tasks.add(MappedTaskList.decode(buffer, record, (int) titlesOffset));
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("File \"" + file + "\" has a corrupted record.", e);
+        }
+        if (tasks.size() != size) {
+            throw new IOException("File \"" + file + "\" has less tasks than its header.");
+        }
+        tasks.trackMappedFile(new MappedSlots(slots, size, capacity, usedSlots, titlesLength, buffer.getLong(32)));
+    }
+
+    /**
+     * Reads bytes from the position of the channel until the buffer is full, returns {@code false} at the end of the channel
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) <= 0) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
-     * Returns a String object representing a task
+     * Opens a file written by {@link #writeMapped(TaskList, File)} as a read-only task list.
+     * Tasks are not read into memory, they are decoded from the mapped file on access.
      *
-     * @param task task to be converted to a String
-     * @return a String object representing a task
+     * @param file input file
+     * @return task list backed by the file
+     * @throws IOException if an I/O error occurs or the file has another format.
      */
-    private static String taskToString(Task task) {
-        StringBuilder resString = new StringBuilder();
-        String title = task.getTitle().replaceAll("\"", "\"\"");
-        String activeStatus = (task.isActive()) ? "" : " inactive";
-        resString.append("\"").append(title).append("\"");
-        if (task.getRepeatInterval() > 0) {
-            resString.append(" from ").append(DATE_FORMAT.format(task.getStartTime()))
-                    .append(" to ").append(DATE_FORMAT.format(task.getEndTime()))
-                    .append(" every [").append(intervalToString(task.getRepeatInterval())).append("]");
-        } else {
-            resString.append(" at ").append(DATE_FORMAT.format(task.getTime()));
-        }
-        resString.append(activeStatus);
-        return resString.toString();
+    public static MappedTaskList openMapped(File file) throws IOException {
+        return new MappedTaskList(file);
     }
 
     /**
-     * Returns a String object representing interval
+     * Opens a file in the text format as a read-only task list, whose tasks are parsed page by page on access.
+     * The offsets of the pages are kept in an index next to the file, see {@link PagedTaskList}.
      *
-     * @param intervalInSec interval to be converted to a String
-     * @return a String object representing interval
+     * @param file input character file
+     * @return task list backed by the file
+     * @throws IOException if an I/O error occurs
      */
-    private static String intervalToString(int intervalInSec) {
-        int seconds = intervalInSec % SECONDS_IN_MINUTE;
-        int intervalInMin = (int) intervalInSec / SECONDS_IN_MINUTE;
-        int minutes = intervalInMin % MINUTES_IN_HOUR;
-        int intervalInHours = (int) intervalInMin / MINUTES_IN_HOUR;
-        int hours = intervalInHours % HOURS_IN_DAY;
-        int days = (int) intervalInHours / HOURS_IN_DAY;
+    public static PagedTaskList openPaged(File file) throws IOException {
+        return new PagedTaskList(file);
+    }
 
-        StringBuilder s = new StringBuilder();
-        if (days > 0) {
-            s.append(days).append(" day");
-            if (days > 1) {
-                s.append("s");
-            }
-            s.append(" ");
+    /**
+     * Writes tasks from the list to the character stream
+     *
+     * @param tasks list of tasks to be written
+     * @param out   output character stream
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(TaskList tasks, Writer out) throws IOException {
+        try (BufferedWriter bf = new BufferedWriter(out)) {
+            new TaskTextCodec().write(tasks, bf);
         }
-        if (hours > 0) {
-            s.append(hours).append(" hour");
-            if (hours > 1) {
-                s.append("s");
-            }
-            s.append(" ");
+    }
+
+    /**
+     * Reads tasks from a character stream in task list
+     *
+     * @param tasks list of tasks to be read
+     * @param in    input character stream
+     * @throws IOException    if an I/O error occurs
+     * @throws ParseException if a line can't be parsed; the message contains the number of the line
+     */
+    public static void read(TaskList tasks, Reader in) throws IOException, ParseException {
+        try (Reader reader = in) {
+            new TaskTextCodec().read(tasks, reader);
         }
-        if (minutes > 0) {
-            s.append(minutes).append(" minute");
-            if (minutes > 1) {
-                s.append("s");
-            }
-            s.append(" ");
+    }
+
+    /**
+     * Writes tasks from the list to the character file
+     *
+     * @param tasks list of tasks to be written
+     * @param file  output character file
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeText(TaskList tasks, File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            write(tasks, writer);
         }
-        if (seconds > 0) {
-            s.append(seconds).append(" second");
-            if (seconds > 1) {
-                s.append("s");
+    }
+
+    /**
+     * Writes tasks from the list to the character file atomically: the tasks are written to a temporary file
+     * in the same directory, which is forced to the disk and then renamed over the file.
+     * A crash leaves either the previous or the new content of the file.
+     *
+     * @param tasks list of tasks to be written
+     * @param file  output character file
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeTextAtomically(TaskList tasks, File file) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+                new TaskTextCodec().write(tasks, writer);
+                writer.flush();
+                out.getFD().sync();
             }
-            s.append(" ");
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
         }
-        return s.toString().trim();
     }
 
     /**
-     * Converts string value of interval to an int
+     * Reads tasks from a character file in task list
      *
-     * @param s string value of interval
-     * @return int value of interval
+     * @param tasks list of tasks to be read
+     * @param file  input character file
+     * @throws IOException    if an I/O error occurs
+     * @throws ParseException if a line can't be parsed; the message contains the number of the line
      */
-    private static int stringToInterval(String s) {
-        Pattern pattern = Pattern.compile("^((\\d+) days?)?\\s*((\\d+) hours?)?\\s*((\\d+) minutes?)?\\s*((\\d+) seconds?)?$");
-        Matcher m = pattern.matcher(s);
-        if (m.find()) {
-            int days = (m.group(2) != null) ? Integer.valueOf(m.group(2)) : 0;
-            int hours = (m.group(4) != null) ? Integer.valueOf(m.group(4)) : 0;
-            int minutes = (m.group(6) != null) ? Integer.valueOf(m.group(6)) : 0;
-            int seconds = (m.group(8) != null) ? Integer.valueOf(m.group(8)) : 0;
-            return days * SECONDS_IN_DAY + hours * SECONDS_IN_HOUR + minutes * SECONDS_IN_MINUTE + seconds;
-        }
-        return 0;
+    public static void readText(TaskList tasks, File file) throws IOException, ParseException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            read(tasks, reader);
+        }
     }
 }
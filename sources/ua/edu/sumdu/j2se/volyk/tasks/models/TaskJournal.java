@@ -0,0 +1,514 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The TaskJournal class keeps changes of a task list, saved in the text format, in an append-only log
+ * next to the file ({@code <file>.journal}), so that saving a change costs as much as the change itself.
+ * Each change is written and forced to the disk before the method returns, so a crash loses no changes
+ * acknowledged by the journal. From time to time the log is compacted: the list is written to the file
+ * and the log is started again.
+ * Compaction may run on another thread, while changes are still appended. Such changes are written to the current
+ * log and kept to be written to the new one, which is complete before the file is replaced. The compacted state
+ * of the list is identified by its position, the number of changes appended before it.
+ * A journal has to be opened by {@link #replay(TaskList)} or {@link #start()} before changes are appended. If a crash happens
+ * after the file is replaced, but before the log is, the new log is taken from its temporary file on replay.
+ *
+ * The format of the journal:
+ * - Magic number and format version
+ * - Length and CRC-32 of the file the journal belongs to
+ * Then for each change:
+ * - Length of the record
+ * - CRC-32 of the record
+ * - Record: type of the change (add, remove or edit) and the tasks, the old one first for an edit
+ * A task is written as flags (activity and repetition), title in UTF-8 with its length,
+ * time or start time, end time and repetition interval.
+ *
+ * A journal whose header doesn't match the file is ignored, it belongs to an older version of the file.
+ * Records after a torn or damaged one are ignored and cut off.
+ */
+public class TaskJournal implements Closeable {
+    /**
+     * Suffix of the name of the journal file
+     */
+    public static final String JOURNAL_SUFFIX = ".journal";
+    /**
+     * Default number of records after which the journal should be compacted
+     */
+    public static final int DEFAULT_COMPACT_RECORDS = 1000;
+    private static final byte[] MAGIC = {(byte) 0x89, 'T', 'S', 'J'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 1 + Long.BYTES + Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int EDIT = 3;
+    private static final int ACTIVE_FLAG = 1;
+    private static final int REPEATED_FLAG = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File file;
+    private final File journalFile;
+    private FileChannel channel;
+    private int records;
+    private int compactRecords = DEFAULT_COMPACT_RECORDS;
+    /**
+     * Records appended since the journal was started by {@link #replay(TaskList)} or by the last compaction,
+     * they are kept to be moved to the new journal, if they are appended after the compacted state of the list
+     */
+    private List<byte[]> recent = new ArrayList<>();
+    /**
+     * Number of records appended before the first record in {@link #recent}
+     */
+    private long recentStart;
+    private boolean compacting;
+    private boolean closed;
+
+    /**
+     * Creates journal for the text file of the task list
+     *
+     * @param file text file of the task list
+     */
+    public TaskJournal(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("File can't be null.");
+        }
+        this.file = file;
+        this.journalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Returns the text file of the task list.
+     *
+     * @return the text file of the task list
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of records in the journal.
+     *
+     * @return the number of records
+     */
+    public synchronized int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Sets the number of records after which {@link #needsCompaction()} returns {@code true}.
+     *
+     * @param compactRecords number of records
+     */
+    public synchronized void setCompactRecords(int compactRecords) {
+        if (compactRecords <= 0) {
+            throw new IllegalArgumentException("Entered value: compactRecords=" + compactRecords + " - not valid. Has to be > 0.");
+        }
+        this.compactRecords = compactRecords;
+    }
+
+    /**
+     * Returns whether the journal has grown enough to be compacted and it is not being compacted.
+     *
+     * @return {@code true} if the journal should be compacted
+     */
+    public synchronized boolean needsCompaction() {
+        return !compacting && records >= compactRecords;
+    }
+
+    /**
+     * Returns the number of changes appended so far, which identifies the current state of the list
+     * for {@link #compact(TaskList, long)}.
+     *
+     * @return the position of the current state of the list
+     */
+    public synchronized long getPosition() {
+        return recentStart + recent.size();
+    }
+
+    /**
+     * Applies the changes from the journal to the list read from the file and opens the journal for appending.
+     * If the journal doesn't belong to the current content of the file, it is started again.
+     *
+     * @param tasks list read from the file
+     * @return the number of applied changes
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized int replay(TaskList tasks) throws IOException {
+        closeChannel();
+        closed = false;
+        recent = new ArrayList<>();
+        recentStart = 0;
+        records = 0;
+        long[] snapshot = checksum(file);
+        File unfinished = new File(journalFile.getPath() + TEMP_SUFFIX);
+        if (unfinished.isFile() && belongsTo(unfinished, snapshot)) {
+            // compaction was interrupted after the file was replaced, the new journal is already complete
+            Files.move(unfinished.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        long valid = 0;
+        if (journalFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), BUFFER_SIZE))) {
+                long length = journalFile.length();
+                if (readHeader(in, snapshot)) {
+                    valid = HEADER_SIZE;
+                    byte[] record;
+                    while ((record = readRecord(in, length - valid - RECORD_HEADER_SIZE)) != null) {
+                        apply(tasks, record);
+                        valid += RECORD_HEADER_SIZE + record.length;
+                        records++;
+                    }
+                }
+            }
+        }
+        if (valid == 0) {
+            startJournal(snapshot);
+        } else {
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+            if (channel.size() > valid) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            channel.position(valid);
+        }
+        return records;
+    }
+
+    /**
+     * Starts a new journal for the current content of the file and opens it for appending.
+     * The changes appended afterwards are applied to that content on replay, until the journal is compacted.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void start() throws IOException {
+        closeChannel();
+        closed = false;
+        recent = new ArrayList<>();
+        recentStart = 0;
+        records = 0;
+        startJournal(checksum(file));
+    }
+
+    /**
+     * Writes the record of adding the task to the journal
+     *
+     * @param task added task
+     * @throws IOException if an I/O error occurs
+     */
+    public void add(Task task) throws IOException {
+        append(ADD, task, null);
+    }
+
+    /**
+     * Writes the record of removing the task to the journal
+     *
+     * @param task removed task
+     * @throws IOException if an I/O error occurs
+     */
+    public void remove(Task task) throws IOException {
+        append(REMOVE, task, null);
+    }
+
+    /**
+     * Writes the record of replacing the task with the edited one to the journal
+     *
+     * @param task   task before editing
+     * @param edited task after editing
+     * @throws IOException if an I/O error occurs
+     */
+    public void edit(Task task, Task edited) throws IOException {
+        append(EDIT, task, edited);
+    }
+
+    /**
+     * Writes the list to the file and starts the journal again. The file is replaced atomically,
+     * the journal of the previous content is ignored even if the crash happens before it is replaced.
+     *
+     * @param tasks list of tasks
+     * @throws IOException if an I/O error occurs
+     */
+    public void compact(TaskList tasks) throws IOException {
+        compact(tasks, getPosition());
+    }
+
+    /**
+     * Writes the state of the list at the position to the file and starts the journal again with the changes
+     * appended after the position. Changes may be appended from other threads meanwhile.
+     * A closed journal isn't opened again after the compaction.
+     *
+     * @param tasks    state of the list at the position
+     * @param position position returned by {@link #getPosition()} when the state of the list was taken
+     * @throws IOException if an I/O error occurs
+     */
+    public void compact(TaskList tasks, long position) throws IOException {
+        synchronized (this) {
+            if (compacting) {
+                throw new IllegalStateException("Journal is already being compacted.");
+            } else if (position < recentStart || position > getPosition()) {
+                throw new IllegalArgumentException("Entered value: position=" + position + " - not valid. Has to be from "
+                        + recentStart + " to " + getPosition() + ".");
+            }
+            compacting = true;
+        }
+        try {
+            Path target = file.toPath();
+            Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+            CRC32 crc = new CRC32();
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                CheckedOutputStream checked = new CheckedOutputStream(out, crc);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(checked));
+                new TaskTextCodec().write(tasks, writer);
+                writer.flush();
+                out.getFD().sync();
+            }
+            long[] snapshot = {temp.toFile().length(), crc.getValue()};
+            synchronized (this) {
+                List<byte[]> following = new ArrayList<>(recent.subList((int) (position - recentStart), recent.size()));
+                Path journalTemp = writeJournal(snapshot, following);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(journalTemp, journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                recent = following;
+                recentStart = position;
+                records = following.size();
+                closeChannel();
+                if (!closed) {
+                    openChannel();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Closes the journal. Records written so far are already on the disk.
+     * A compaction in progress is finished, but the journal stays closed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeChannel();
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Writes a new journal with only the header to a temporary file and replaces the journal with it
+     */
+    private void startJournal(long[] snapshot) throws IOException {
+        Path temp = writeJournal(snapshot, Collections.<byte[]>emptyList());
+        Files.move(temp, journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        openChannel();
+    }
+
+    /**
+     * Writes a journal with the header and the records to a temporary file and forces it to the disk
+     *
+     * @return the temporary file
+     */
+    private Path writeJournal(long[] snapshot, List<byte[]> records) throws IOException {
+        Path target = journalFile.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).put((byte) VERSION).putLong(snapshot[0]).putInt((int) snapshot[1]);
+        header.flip();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            for (byte[] record : records) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+        return temp;
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Writes one record and forces it to the disk
+     */
+    private synchronized void append(int type, Task task, Task edited) throws IOException {
+        if (task == null || (type == EDIT && edited == null)) {
+            throw new IllegalArgumentException("Task can't be null.");
+        } else if (closed) {
+            throw new IllegalStateException("Journal is closed.");
+        } else if (channel == null) {
+            throw new IllegalStateException("Journal is not open.");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        writeTask(out, task);
+        if (edited != null) {
+            writeTask(out, edited);
+        }
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + record.length);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        recent.add(buffer.array());
+        records++;
+    }
+
+    private static void writeTask(DataOutput out, Task task) throws IOException {
+        byte[] title = task.getTitle().getBytes(StandardCharsets.UTF_8);
+        out.writeByte((task.isActive() ? ACTIVE_FLAG : 0) | (task.isRepeated() ? REPEATED_FLAG : 0));
+        out.writeInt(title.length);
+        out.write(title);
+        out.writeLong(task.getStartTime().getTime());
+        out.writeLong(task.getEndTime().getTime());
+        out.writeInt(task.getRepeatInterval());
+    }
+
+    private static Task readTask(DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid length of title: " + length + ".");
+        }
+        byte[] title = new byte[length];
+        in.readFully(title);
+        long start = in.readLong();
+        long end = in.readLong();
+        int interval = in.readInt();
+        Task task;
+        try {
+            if ((flags & REPEATED_FLAG) != 0) {
+                task = new Task(new String(title, StandardCharsets.UTF_8), new Date(start), new Date(end), interval);
+            } else {
+                task = new Task(new String(title, StandardCharsets.UTF_8), new Date(start));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid task in journal: " + e.getMessage(), e);
+        }
+        task.setActive((flags & ACTIVE_FLAG) != 0);
+        return task;
+    }
+
+    /**
+     * Applies the change from the record to the list
+     */
+    private static void apply(TaskList tasks, byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        int type = in.readUnsignedByte();
+        Task task = readTask(in);
+        if (type == ADD) {
+            tasks.add(task);
+        } else if (type == REMOVE) {
+            tasks.remove(task);
+        } else if (type == EDIT) {
+            Task edited = readTask(in);
+            tasks.remove(task);
+            tasks.add(edited);
+        } else {
+            throw new IOException("Unknown type of journal record: " + type + ".");
+        }
+    }
+
+    /**
+     * Reads the header of the journal and checks that it belongs to the file with the given length and checksum
+     */
+    private static boolean readHeader(DataInputStream in, long[] snapshot) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            in.readFully(magic);
+            return Arrays.equals(magic, MAGIC) && in.readUnsignedByte() == VERSION
+                    && in.readLong() == snapshot[0] && in.readInt() == (int) snapshot[1];
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the journal file has the header of the file with the given length and checksum
+     */
+    private static boolean belongsTo(File journal, long[] snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journal))) {
+            return readHeader(in, snapshot);
+        }
+    }
+
+    /**
+     * Reads the next record, returns {@code null} at the end of the journal or at a torn or damaged record
+     *
+     * @param remaining number of bytes after the header of the record up to the end of the journal
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > remaining) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            return (int) crc.getValue() == checksum ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the length and CRC-32 of the file, zeros if it doesn't exist
+     */
+    private static long[] checksum(File file) throws IOException {
+        if (!file.isFile()) {
+            return new long[]{0, 0};
+        }
+        CRC32 crc = new CRC32();
+        long length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+                length += count;
+            }
+        }
+        return new long[]{length, crc.getValue()};
+    }
+}
@@ -13,6 +13,7 @@ import java.util.Iterator;
  * add(Task) and remove(Task) methods.
  */
 public abstract class TaskList extends AbstractCollection<Task> implements Cloneable, Iterable<Task>, Serializable {
+    private static final long serialVersionUID = 1291452771480199601L;
     /**
      * Count of elements of the list.
      */
@@ -22,6 +23,7 @@ public abstract class TaskList extends AbstractCollection<Task> implements Clone
      * Appends the specified task to the end of this list.
      *
      * @param task task to be appended to this list
+     * @return {@code true}, as the list is changed (as specified by {@link java.util.Collection#add(Object)})
      */
     public abstract boolean add(Task task);
 
@@ -50,6 +52,34 @@ public abstract class TaskList extends AbstractCollection<Task> implements Clone
      */
     public abstract Task getTask(int index);
 
+    /**
+     * Returns the index of the first occurrence of the specified task in this list,
+     * or -1 if this list does not contain the task.
+     *
+     * @param task task to search for
+     * @return the index of the first occurrence of the task in this list, or -1
+     */
+    public int indexOf(Task task) {
+        int i = 0;
+        for (Task currentTask : this) {
+            if (currentTask.equals(task)) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns {@code true} if this list contains the specified task.
+     *
+     * @param o task whose presence in this list is to be tested
+     * @return {@code true} if this list contains the specified task
+     */
+    public boolean contains(Object o) {
+        return o instanceof Task && indexOf((Task) o) >= 0;
+    }
+
     /**
      * Returns array of tasks from the list, the notification time of which is
      * between {@code from} (exclusive) and {@code to} (inclusive).
@@ -59,23 +89,48 @@ public abstract class TaskList extends AbstractCollection<Task> implements Clone
      * @return Returns array of tasks from the list in specified interval
      */
     public TaskList incoming(Date from, Date to) {
+        checkRange(from, to);
+        long fromTime = from.getTime();
+        long toTime = to.getTime();
+        TaskList incomingTasks = createInstance();
+        for (Task currentTask : this) {
+            if (isIncoming(currentTask, fromTime, toTime)) {
+                incomingTasks.add(currentTask);
+            }
+        }
+        return incomingTasks;
+    }
+
+    /**
+     * Checks that {@code from} and {@code to} bound a valid interval for searching incoming tasks
+     *
+     * @param from start time of the interval
+     * @param to   end time of the interval
+     * @throws IllegalArgumentException if the interval is not valid
+     */
+    protected static void checkRange(Date from, Date to) {
         Date minDate = new Date(0);
         if (from.before(minDate) || to.before(minDate)) {
             throw new IllegalArgumentException("Entered values: from=" + from + ", to=" + to + " - not valid. Have to be >= 0.");
         } else if (from.after(to)) {
             throw new IllegalArgumentException("Value of 'to' is less than value of 'from'.");
-        } else {
-            TaskList incomingTasks = createInstance();
-            for (int i = 0; i < size(); i++) {
-                Task currentTask = this.getTask(i);
-                if (currentTask.nextTimeAfter(from).after(from) && currentTask.nextTimeAfter(from).before(to)) {
-                    incomingTasks.add(currentTask);
-                }
-            }
-            return incomingTasks;
         }
     }
 
+    /**
+     * Returns {@code true} if the next notification of the task after {@code from}
+     * is not later than {@code to}.
+     *
+     * @param task task to be checked
+     * @param from start time of the interval in milliseconds (exclusive)
+     * @param to   end time of the interval in milliseconds (inclusive)
+     * @return {@code true} if the task has a notification in the interval
+     */
+    protected static boolean isIncoming(Task task, long from, long to) {
+        long next = task.nextTimeAfter(from);
+        return next > from && next <= to;
+    }
+
     protected abstract TaskList createInstance();
 
     /**
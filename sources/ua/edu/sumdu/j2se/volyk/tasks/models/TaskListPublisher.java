@@ -0,0 +1,60 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+/**
+ * The TaskListPublisher class publishes versions of a task list as immutable snapshots.
+ * The writer of the list publishes the list after each change, which only increments the version.
+ * The snapshot is copied from the list when it is requested for the first time after a change,
+ * so a series of changes between two requests costs a single copy.
+ * Snapshots are requested on the thread of the writer; a requested snapshot may be passed to readers
+ * on other threads, which work on it without locking, while the list is being changed.
+ */
+public class TaskListPublisher {
+    private TaskListSnapshot snapshot = new TaskListSnapshot(new ArrayTaskList(), 0);
+    /**
+     * List changed after the last snapshot was copied, {@code null} if the snapshot is up to date
+     */
+    private TaskList changed;
+    private long version;
+
+    /**
+     * Publishes a new version of the task list. The snapshot of the version is copied on request.
+     *
+     * @param list task list to be published
+     */
+    public void publish(TaskList list) {
+        changed = list;
+        version++;
+    }
+
+    /**
+     * Returns the snapshot of the last published version, copying it if it hasn't been requested yet.
+     *
+     * @return the snapshot of the last published version
+     */
+    public TaskListSnapshot getSnapshot() {
+        if (changed != null) {
+            snapshot = new TaskListSnapshot(changed, version);
+            changed = null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of the last published version.
+     *
+     * @return the number of the last published version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether the list is the snapshot of the last published version. Doesn't copy the snapshot.
+     *
+     * @param list task list to be checked
+     * @return {@code true} if the list is the snapshot of the last published version
+     */
+    public boolean isCurrent(TaskList list) {
+        return changed == null && snapshot == list;
+    }
+}
@@ -0,0 +1,119 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * The TaskListSnapshot class is an immutable copy of a task list at some moment.
+ * Snapshots are published by {@link TaskListPublisher}; each of them has a version,
+ * which is greater than the versions of the snapshots published before it.
+ * As a snapshot never changes, it may be read by any number of threads without locking.
+ * The tasks themselves are shared with the original list and must not be changed
+ * after they were added to it.
+ */
+public class TaskListSnapshot extends TaskList {
+    private static final long serialVersionUID = -4520872383712690395L;
+    private final Task[] tasks;
+    private final long version;
+
+    /**
+     * Creates a snapshot of the task list.
+     *
+     * @param list    task list to be copied
+     * @param version version of the snapshot
+     */
+    public TaskListSnapshot(TaskList list, long version) {
+        tasks = new Task[list.size()];
+        int i = 0;
+        for (Task task : list) {
+            tasks[i++] = task;
+        }
+        size = i;
+        this.version = version;
+    }
+
+    /**
+     * Returns the version of the snapshot.
+     *
+     * @return the version of the snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Not supported, the snapshot is immutable.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public boolean add(Task task) {
+        throw new UnsupportedOperationException("Task list snapshot is immutable.");
+    }
+
+    /**
+     * Not supported, the snapshot is immutable.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public boolean remove(Task task) {
+        throw new UnsupportedOperationException("Task list snapshot is immutable.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Task getTask(int index) {
+        if (index >= 0 && index < size()) {
+            return tasks[index];
+        } else {
+            throw new IndexOutOfBoundsException("Index out of range.");
+        }
+    }
+
+    /**
+     * Returns a modifiable list for the results of queries, as the snapshot is immutable
+     */
+    protected TaskList createInstance() {
+        return new ArrayTaskList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private int currentIndex = -1;
+
+            public boolean hasNext() {
+                return currentIndex < size() - 1;
+            }
+
+            public Task next() {
+                if (hasNext()) {
+                    return tasks[++currentIndex];
+                }
+                throw new NoSuchElementException("No more elements in the list.");
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator over the elements in this snapshot.
+     *
+     * @return a spliterator over the elements in this snapshot
+     */
+    public Spliterator<Task> spliterator() {
+        return Spliterators.spliterator(tasks, 0, size(), Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * Returns this snapshot, as it is immutable.
+     *
+     * @return this snapshot
+     */
+    public TaskListSnapshot clone() {
+        return this;
+    }
+}
@@ -0,0 +1,541 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Encoder and decoder of the text format of task lists, which is described in {@link TaskIO}.
+ * Lines are parsed and formatted directly in {@code char[]} buffers: dates are converted
+ * with plain arithmetic and the offset of the time zone, which is cached for the period
+ * between two transitions of the zone, titles and intervals are scanned by hand.
+ * The result is the same as with {@link SimpleDateFormat}, which is still used for dates
+ * that are not in the usual form or fall close to a transition of the time zone.
+ * A codec is not thread-safe; each thread needs its own instance.
+ */
+class TaskTextCodec {
+    private static final String DATE_PATTERN = "[yyyy-MM-dd HH:mm:ss.SSS]";
+    private static final int DATE_LENGTH = DATE_PATTERN.length();
+    private static final long MILLIS_IN_SECOND = 1000;
+    private static final long MILLIS_IN_DAY = 24 * 60 * 60 * MILLIS_IN_SECOND;
+    private static final int SECONDS_IN_MINUTE = 60;
+    private static final int SECONDS_IN_HOUR = 60 * SECONDS_IN_MINUTE;
+    private static final int SECONDS_IN_DAY = 24 * SECONDS_IN_HOUR;
+    private static final int[] UNIT_SECONDS = {SECONDS_IN_DAY, SECONDS_IN_HOUR, SECONDS_IN_MINUTE, 1};
+    private static final String[] UNIT_NAMES = {"day", "hour", "minute", "second"};
+    private static final char[] AT = " at ".toCharArray();
+    private static final char[] FROM = " from ".toCharArray();
+    private static final char[] TO = " to ".toCharArray();
+    private static final char[] EVERY = " every [".toCharArray();
+    private static final char[] INACTIVE = " inactive".toCharArray();
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int OFFSET_CACHE_SIZE = 16;
+    /**
+     * Times are distributed among entries of the offset cache by periods of 2^34 ms, about 200 days
+     */
+    private static final int OFFSET_CACHE_SHIFT = 34;
+
+    private final TimeZone timeZone;
+    private final ZoneRules rules;
+    private SimpleDateFormat dateFormat;
+    private char[] line = new char[256];
+    private int length;
+    private final StringBuilder title = new StringBuilder();
+    /**
+     * Cached offsets of the time zone for periods between two of its transitions, in UTC.
+     * A period is kept in the entry selected by bits of the time, so that dates of several years
+     * may be converted without looking up transitions again.
+     */
+    private final long[] offsetFrom = new long[OFFSET_CACHE_SIZE];
+    private final long[] offsetTo = new long[OFFSET_CACHE_SIZE];
+    private final int[] offsets = new int[OFFSET_CACHE_SIZE];
+
+    /**
+     * Creates a codec for dates in the default time zone.
+     */
+    TaskTextCodec() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Creates a codec for dates in the specified time zone.
+     *
+     * @param timeZone time zone of dates
+     */
+    TaskTextCodec(TimeZone timeZone) {
+        this.timeZone = timeZone;
+        this.rules = timeZone.toZoneId().getRules();
+    }
+
+    /**
+     * Writes tasks of the list, each one on a separate line, followed by a semicolon or, after the last one, a point.
+     *
+     * @param tasks list of tasks to be written
+     * @param out   output character stream
+     * @throws IOException if an I/O error occurs
+     */
+    void write(TaskList tasks, Writer out) throws IOException {
+        String lineSeparator = System.lineSeparator();
+        int i = 0;
+        for (Task task : tasks) {
+            length = 0;
+            format(task);
+            append(i < tasks.size() - 1 ? ';' : '.');
+            if (i < tasks.size() - 1) {
+                append(lineSeparator);
+            }
+            out.write(line, 0, length);
+            i++;
+        }
+    }
+
+    /**
+     * Reads tasks line by line from the character stream and adds them to the list. Blank lines are skipped.
+     *
+     * @param tasks list for the read tasks
+     * @param in    input character stream
+     * @throws IOException    if an I/O error occurs
+     * @throws ParseException if a line is not valid; the message contains the number of the line
+     */
+    void read(TaskList tasks, Reader in) throws IOException, ParseException {
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        int start = 0;
+        int end = 0;
+        int scanned = 0;
+        int lineNumber = 1;
+        boolean eof = false;
+        boolean skipLineFeed = false;
+        while (true) {
+            if (skipLineFeed && start < end) {
+                if (buffer[start] == '\n') {
+                    start++;
+                }
+                scanned = start;
+                skipLineFeed = false;
+            }
+            int lineEnd = scanned;
+            while (lineEnd < end && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            if ((lineEnd == end || skipLineFeed) && !eof) {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    lineEnd -= start;
+                    end -= start;
+                    start = 0;
+                } else if (end == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                scanned = lineEnd;
+                int count = in.read(buffer, end, buffer.length - end);
+                if (count < 0) {
+                    eof = true;
+                } else {
+                    end += count;
+                }
+                continue;
+            }
+            if (lineEnd == end) {
+                Task task = parse(buffer, start, end, lineNumber);
+                if (task != null) {
+                    tasks.add(task);
+                }
+                return;
+            }
+            Task task = parse(buffer, start, lineEnd, lineNumber);
+            if (task != null) {
+                tasks.add(task);
+            }
+            lineNumber++;
+            skipLineFeed = buffer[lineEnd] == '\r';
+            start = lineEnd + 1;
+            scanned = start;
+        }
+    }
+
+    /**
+     * Parses a task from a line of the text format.
+     *
+     * @param chars      buffer with the line
+     * @param from       index of the first character of the line
+     * @param to         index after the last character of the line, without the line separator
+     * @param lineNumber number of the line for error messages
+     * @return the task or {@code null} if the line is blank
+     * @throws ParseException if the line is not valid; the error offset is the position in the line
+     */
+    Task parse(char[] chars, int from, int to, int lineNumber) throws ParseException {
+        while (to > from && Character.isWhitespace(chars[to - 1])) {
+            to--;
+        }
+        if (to == from) {
+            return null;
+        }
+        int i = from;
+        while (i < to && chars[i] != '"') {
+            i++;
+        }
+        if (i == to) {
+            throw error("title in double quotes expected", lineNumber, from, i);
+        }
+        title.setLength(0);
+        i++;
+        while (true) {
+            if (i >= to) {
+                throw error("closing double quote of the title expected", lineNumber, from, i);
+            } else if (chars[i] == '"') {
+                if (i + 1 < to && chars[i + 1] == '"') {
+                    title.append('"');
+                    i += 2;
+                } else {
+                    i++;
+                    break;
+                }
+            } else {
+                title.append(chars[i++]);
+            }
+        }
+        if (chars[to - 1] == ';' || chars[to - 1] == '.') {
+            to--;
+        }
+        boolean active = true;
+        if (endsWith(chars, i, to, INACTIVE)) {
+            active = false;
+            to -= INACTIVE.length;
+        }
+        try {
+            Task task;
+            if (startsWith(chars, i, to, AT)) {
+                i += AT.length;
+                long time = parseDate(chars, i, to, lineNumber, from);
+                i += DATE_LENGTH;
+                task = new Task(title.toString(), new Date(time));
+            } else if (startsWith(chars, i, to, FROM)) {
+                i += FROM.length;
+                long start = parseDate(chars, i, to, lineNumber, from);
+                i += DATE_LENGTH;
+                if (!startsWith(chars, i, to, TO)) {
+                    throw error("\" to \" expected", lineNumber, from, i);
+                }
+                i += TO.length;
+                long end = parseDate(chars, i, to, lineNumber, from);
+                i += DATE_LENGTH;
+                if (!startsWith(chars, i, to, EVERY) || chars[to - 1] != ']') {
+                    throw error("\" every [interval]\" expected", lineNumber, from, i);
+                }
+                i += EVERY.length;
+                int interval = parseInterval(chars, i, to - 1, lineNumber, from);
+                i = to;
+                task = new Task(title.toString(), new Date(start), new Date(end), interval);
+            } else {
+                throw error("\" at \" or \" from \" expected", lineNumber, from, i);
+            }
+            if (i != to) {
+                throw error("end of the task expected", lineNumber, from, i);
+            }
+            task.setActive(active);
+            return task;
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), lineNumber, from, i);
+        }
+    }
+
+    /**
+     * Parses a date in square brackets, which starts at the specified position and has the length of {@link #DATE_PATTERN}
+     */
+    private long parseDate(char[] chars, int i, int to, int lineNumber, int lineStart) throws ParseException {
+        if (i + DATE_LENGTH > to || chars[i] != '[' || chars[i + DATE_LENGTH - 1] != ']') {
+            throw error("date " + DATE_PATTERN + " expected", lineNumber, lineStart, i);
+        }
+        int year = digits(chars, i + 1, 4);
+        int month = digits(chars, i + 6, 2);
+        int day = digits(chars, i + 9, 2);
+        int hour = digits(chars, i + 12, 2);
+        int minute = digits(chars, i + 15, 2);
+        int second = digits(chars, i + 18, 2);
+        int millis = digits(chars, i + 21, 3);
+        if (year >= 1970 && chars[i + 5] == '-' && chars[i + 8] == '-' && chars[i + 11] == ' '
+                && chars[i + 14] == ':' && chars[i + 17] == ':' && chars[i + 20] == '.'
+                && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+                && hour < 24 && minute < 60 && second < 60) {
+            long local = daysFromCivil(year, month, day) * MILLIS_IN_DAY
+                    + ((hour * 60L + minute) * 60 + second) * MILLIS_IN_SECOND + millis;
+            long utc = local - offsetAt(local - offsetAt(local));
+            int entry = cacheEntry(utc);
+            if (utc + offsetAt(utc) == local && utc >= offsetFrom[entry] + MILLIS_IN_DAY && utc < offsetTo[entry] - MILLIS_IN_DAY) {
+                return utc;
+            }
+        }
+        try {
+            return dateFormat().parse(new String(chars, i, DATE_LENGTH)).getTime();
+        } catch (ParseException e) {
+            throw error("date " + DATE_PATTERN + " expected", lineNumber, lineStart, i);
+        }
+    }
+
+    /**
+     * Parses an interval like "1 day 2 hours 3 minutes 4 seconds" into seconds
+     */
+    private int parseInterval(char[] chars, int i, int to, int lineNumber, int lineStart) throws ParseException {
+        long seconds = 0;
+        while (i < to) {
+            if (chars[i] == ' ') {
+                i++;
+                continue;
+            }
+            long value = 0;
+            int start = i;
+            while (i < to && chars[i] >= '0' && chars[i] <= '9' && value <= Integer.MAX_VALUE) {
+                value = value * 10 + (chars[i++] - '0');
+            }
+            if (i == start || i == to || chars[i] != ' ') {
+                throw error("interval like \"1 day 2 hours 3 minutes 4 seconds\" expected", lineNumber, lineStart, start);
+            }
+            i++;
+            int unit = 0;
+            while (unit < UNIT_NAMES.length && !startsWith(chars, i, to, UNIT_NAMES[unit])) {
+                unit++;
+            }
+            if (unit == UNIT_NAMES.length) {
+                throw error("day, hour, minute or second expected", lineNumber, lineStart, i);
+            }
+            i += UNIT_NAMES[unit].length();
+            if (i < to && chars[i] == 's') {
+                i++;
+            }
+            seconds += value * UNIT_SECONDS[unit];
+            if (seconds > Integer.MAX_VALUE) {
+                throw error("interval is too long", lineNumber, lineStart, start);
+            }
+        }
+        return (int) seconds;
+    }
+
+    /**
+     * Appends a task in the text format, without the separator, to the line buffer
+     */
+    private void format(Task task) {
+        append('"');
+        String taskTitle = task.getTitle();
+        for (int i = 0; i < taskTitle.length(); i++) {
+            char c = taskTitle.charAt(i);
+            if (c == '"') {
+                append('"');
+            }
+            append(c);
+        }
+        append('"');
+        if (task.getRepeatInterval() > 0) {
+            append(FROM);
+            formatDate(task.getStartTime().getTime());
+            append(TO);
+            formatDate(task.getEndTime().getTime());
+            append(EVERY);
+            formatInterval(task.getRepeatInterval());
+            append(']');
+        } else {
+            append(AT);
+            formatDate(task.getTime().getTime());
+        }
+        if (!task.isActive()) {
+            append(INACTIVE);
+        }
+    }
+
+    /**
+     * Appends a date in square brackets in the local time of the time zone
+     */
+    private void formatDate(long time) {
+        long local = time + offsetAt(time);
+        long days = Math.floorDiv(local, MILLIS_IN_DAY);
+        long millisOfDay = local - days * MILLIS_IN_DAY;
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 1 || year > 9999) {
+            append(dateFormat().format(new Date(time)));
+            return;
+        }
+        append('[');
+        appendDigits((int) year, 4);
+        append('-');
+        appendDigits(month, 2);
+        append('-');
+        appendDigits(day, 2);
+        append(' ');
+        appendDigits((int) (millisOfDay / 3600000), 2);
+        append(':');
+        appendDigits((int) (millisOfDay / 60000 % 60), 2);
+        append(':');
+        appendDigits((int) (millisOfDay / 1000 % 60), 2);
+        append('.');
+        appendDigits((int) (millisOfDay % 1000), 3);
+        append(']');
+    }
+
+    /**
+     * Appends an interval in seconds as days, hours, minutes and seconds, leaving out zero parts
+     */
+    private void formatInterval(int interval) {
+        boolean first = true;
+        for (int unit = 0; unit < UNIT_SECONDS.length; unit++) {
+            int value = interval / UNIT_SECONDS[unit];
+            interval %= UNIT_SECONDS[unit];
+            if (value > 0) {
+                if (!first) {
+                    append(' ');
+                }
+                append(Integer.toString(value));
+                append(' ');
+                append(UNIT_NAMES[unit]);
+                if (value > 1) {
+                    append('s');
+                }
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Returns offset of the time zone at the specified UTC time in milliseconds.
+     * The offset is cached for the period between the transitions around the time.
+     */
+    private int offsetAt(long time) {
+        int entry = cacheEntry(time);
+        if (time < offsetFrom[entry] || time >= offsetTo[entry]) {
+            Instant instant = Instant.ofEpochMilli(time);
+            ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            offsetFrom[entry] = previous != null ? previous.toEpochSecond() * MILLIS_IN_SECOND : Long.MIN_VALUE;
+            offsetTo[entry] = next != null ? next.toEpochSecond() * MILLIS_IN_SECOND : Long.MAX_VALUE;
+            offsets[entry] = timeZone.getOffset(time);
+        }
+        return offsets[entry];
+    }
+
+    private static int cacheEntry(long time) {
+        return (int) (time >>> OFFSET_CACHE_SHIFT) & (OFFSET_CACHE_SIZE - 1);
+    }
+
+    /**
+     * Returns the formatter for dates which are not handled by the arithmetic, created on the first use
+     */
+    private SimpleDateFormat dateFormat() {
+        if (dateFormat == null) {
+            dateFormat = new SimpleDateFormat(DATE_PATTERN);
+            dateFormat.setTimeZone(timeZone);
+        }
+        return dateFormat;
+    }
+
+    /**
+     * Returns number of days from 1970-01-01 to the specified date of the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /**
+     * Returns the number written with the specified count of digits or -1 if there are other characters
+     */
+    private static int digits(char[] chars, int i, int count) {
+        int value = 0;
+        for (int j = i; j < i + count; j++) {
+            if (chars[j] < '0' || chars[j] > '9') {
+                return -1;
+            }
+            value = value * 10 + (chars[j] - '0');
+        }
+        return value;
+    }
+
+    private static boolean startsWith(char[] chars, int i, int to, char[] prefix) {
+        if (to - i < prefix.length) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length; j++) {
+            if (chars[i + j] != prefix[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(char[] chars, int i, int to, String prefix) {
+        if (to - i < prefix.length()) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length(); j++) {
+            if (chars[i + j] != prefix.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWith(char[] chars, int from, int to, char[] suffix) {
+        return to - from >= suffix.length && startsWith(chars, to - suffix.length, to, suffix);
+    }
+
+    private static ParseException error(String message, int lineNumber, int lineStart, int position) {
+        return new ParseException("Line " + lineNumber + ", column " + (position - lineStart + 1) + ": " + message + ".",
+                position - lineStart);
+    }
+
+    private void appendDigits(int value, int count) {
+        ensureLine(count);
+        for (int i = length + count - 1; i >= length; i--) {
+            line[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += count;
+    }
+
+    private void append(char c) {
+        ensureLine(1);
+        line[length++] = c;
+    }
+
+    private void append(char[] chars) {
+        ensureLine(chars.length);
+        System.arraycopy(chars, 0, line, length, chars.length);
+        length += chars.length;
+    }
+
+    private void append(String s) {
+        ensureLine(s.length());
+        s.getChars(0, s.length(), line, length);
+        length += s.length();
+    }
+
+    private void ensureLine(int count) {
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        }
+    }
+}
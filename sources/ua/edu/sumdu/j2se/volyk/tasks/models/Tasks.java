@@ -1,11 +1,25 @@
 package ua.edu.sumdu.j2se.volyk.tasks.models;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Class for work with task collections
  */
 public class Tasks {
+    /**
+     * Minimal estimated work, in checked tasks and their alerts in the period, for which a calendar
+     * is built in parallel. Parts of the calendar with less work are built by a single thread.
+     */
+    public static final int PARALLEL_THRESHOLD = 1000;
+    /**
+     * Shortest period which is split in parallel mode: alerts of a task are at least a minute apart
+     */
+    private static final long MIN_SPLIT_PERIOD = 60 * 1000;
+
     /**
      * Returns tasks from the Iterable task collection, the notification time of which is
      * between {@code start} (exclusive) and {@code end} (inclusive).
@@ -17,15 +31,18 @@ public class Tasks {
      */
     public static Iterable<Task> incoming(Iterable<Task> tasks, Date start, Date end) {
         Date minDate = new Date(0);
-        if (start.before(minDate) || end.before(minDate)) {
+        if (tasks instanceof TaskList) {
+            return ((TaskList) tasks).incoming(start, end);
+        } else if (start.before(minDate) || end.before(minDate)) {
             throw new IllegalArgumentException("Entered values: from=" + start + ", to=" + end + " - not valid. Have to be >= 0.");
         } else if (start.after(end)) {
             throw new IllegalArgumentException("Value of 'to' is less than value of 'from'.");
         } else {
+            long startTime = start.getTime();
+            long endTime = end.getTime();
             List<Task> incTasks = new ArrayList<>();
             for (Task currentTask : tasks) {
-                Date timeAfterStart = currentTask.nextTimeAfter(start);
-                if (timeAfterStart != null && timeAfterStart.after(start) && !timeAfterStart.after(end)) {
+                if (TaskList.isIncoming(currentTask, startTime, endTime)) {
                     incTasks.add(currentTask);
                 }
             }
@@ -44,14 +61,241 @@ public class Tasks {
      * @return a table where each date corresponds to the set of tasks that must be performed at that time
      */
     public static SortedMap<Date, Set<Task>> calendar(Iterable<Task> tasks, Date start, Date end) {
-        Iterable<Task> incomingTasks = incoming(tasks, start, end);
+        return calendar(tasks, start, end, false);
+    }
+
+    /**
+     * Builds a calendar of tasks for a given period like {@link #calendar(Iterable, Date, Date)}.
+     * In parallel mode all tasks are checked for alerts in the period by the common {@link ForkJoinPool}:
+     * the tasks are split into parts, a part with many alerts is split further by halves of the period,
+     * and the calendars of the parts are merged. The work is estimated as the number of checked tasks
+     * plus the number of their alerts in the period; if it is less than {@value #PARALLEL_THRESHOLD}
+     * the calendar is built in the calling thread. Parallel mode doesn't use the index of a list
+     * which finds incoming tasks without checking all of them, such as {@link IntervalTaskList}.
+     *
+     * @param tasks    task collection for which it is needed to find incoming tasks
+     * @param start    start time of the interval in which it is needed to find tasks with notification
+     * @param end      end time of the interval in which it is needed to find tasks with notification
+     * @param parallel whether the calendar should be built in parallel
+     * @return a table where each date corresponds to the set of tasks that must be performed at that time
+     */
+    public static SortedMap<Date, Set<Task>> calendar(Iterable<Task> tasks, Date start, Date end, boolean parallel) {
+        if (parallel) {
+            TaskList.checkRange(start, end);
+            Task[] taskArray = toArray(tasks);
+            long startTime = start.getTime();
+            long endTime = end.getTime();
+            if (estimateWork(taskArray, 0, taskArray.length, startTime, endTime, PARALLEL_THRESHOLD) >= PARALLEL_THRESHOLD) {
+                return ForkJoinPool.commonPool().invoke(new CalendarTask(taskArray, 0, taskArray.length, startTime, endTime));
+            }
+            return calendar(taskArray, 0, taskArray.length, startTime, endTime);
+        }
+        List<Task> incomingTasks = new ArrayList<>();
+        for (Task t : incoming(tasks, start, end)) {
+            incomingTasks.add(t);
+        }
+        Task[] taskArray = incomingTasks.toArray(new Task[0]);
+        return calendar(taskArray, 0, taskArray.length, start.getTime(), end.getTime());
+    }
+
+    private static Task[] toArray(Iterable<Task> tasks) {
+        if (tasks instanceof Collection) {
+            return ((Collection<Task>) tasks).toArray(new Task[0]);
+        }
+        List<Task> list = new ArrayList<>();
+        for (Task t : tasks) {
+            list.add(t);
+        }
+        return list.toArray(new Task[0]);
+    }
+
+    /**
+     * Estimates the work of building the calendar for the range of tasks: one unit for checking
+     * each task and one for each of its alerts in the period
+     *
+     * @param limit value at which counting stops
+     * @return the estimated work, not greater than the limit by more than the work of one task
+     */
+    private static long estimateWork(Task[] tasks, int from, int to, long start, long end, long limit) {
+        long work = 0;
+        for (int i = from; i < to && work < limit; i++) {
+            Task task = tasks[i];
+            work++;
+            if (task.isActive()) {
+                long first = Math.max(task.getStartTime().getTime(), start + 1);
+                long last = Math.min(task.getEndTime().getTime(), end);
+                if (first <= last) {
+                    work += task.isRepeated() ? (last - first) / (task.getRepeatInterval() * 60L * 1000) + 1 : 1;
+                }
+            }
+        }
+        return work;
+    }
+
+    /**
+     * Builds a calendar for the range of tasks from the array, skipping the tasks without alerts in the period
+     *
+     * @param tasks array of tasks
+     * @param from  index of the first task in the range (inclusive)
+     * @param to    index of the last task in the range (exclusive)
+     * @param start start time of the interval in milliseconds
+     * @param end   end time of the interval in milliseconds
+     * @return a table where each date corresponds to the set of tasks that must be performed at that time
+     */
+    private static SortedMap<Date, Set<Task>> calendar(Task[] tasks, int from, int to, long start, long end) {
         SortedMap<Date, Set<Task>> map = new TreeMap<>();
-        for (Task t : incomingTasks) {
-            addTaskToMap(map, t.nextTimeAfter(start), t);
+        for (int i = from; i < to; i++) {
+            long first = tasks[i].nextTimeAfter(start);
+            if (first == -1 || first > end) {
+                continue;
+            }
+            PrimitiveIterator.OfLong occurrences = tasks[i].occurrences(start, end);
+            while (occurrences.hasNext()) {
+                addTaskToMap(map, new Date(occurrences.nextLong()), tasks[i]);
+            }
         }
         return map;
     }
 
+    /**
+     * Builds the calendar for a range of tasks and a period. Ranges larger than {@value #PARALLEL_THRESHOLD} tasks
+     * are split in halves, then the period of a range, whose estimated work is greater than the threshold,
+     * is split in halves until it is shorter than a minute
+     */
+    private static class CalendarTask extends RecursiveTask<SortedMap<Date, Set<Task>>> {
+        private static final long serialVersionUID = 3482219146013541866L;
+        private final Task[] tasks;
+        private final int from;
+        private final int to;
+        private final long start;
+        private final long end;
+
+        private CalendarTask(Task[] tasks, int from, int to, long start, long end) {
+            this.tasks = tasks;
+            this.from = from;
+            this.to = to;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected SortedMap<Date, Set<Task>> compute() {
+            CalendarTask left;
+            CalendarTask right;
+            if (to - from > PARALLEL_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                left = new CalendarTask(tasks, from, middle, start, end);
+                right = new CalendarTask(tasks, middle, to, start, end);
+            } else if (end - start >= 2 * MIN_SPLIT_PERIOD
+                    && estimateWork(tasks, from, to, start, end, PARALLEL_THRESHOLD + 1) > PARALLEL_THRESHOLD) {
+                long middle = start + (end - start) / 2;
+                left = new CalendarTask(tasks, from, to, start, middle);
+                right = new CalendarTask(tasks, from, to, middle, end);
+            } else {
+                return calendar(tasks, from, to, start, end);
+            }
+            left.fork();
+            SortedMap<Date, Set<Task>> rightMap = right.compute();
+            return merge(left.join(), rightMap);
+        }
+
+        /**
+         * Merges the smaller calendar into the larger one
+         */
+        private static SortedMap<Date, Set<Task>> merge(SortedMap<Date, Set<Task>> first, SortedMap<Date, Set<Task>> second) {
+            if (first.size() < second.size()) {
+                SortedMap<Date, Set<Task>> temp = first;
+                first = second;
+                second = temp;
+            }
+            for (Map.Entry<Date, Set<Task>> entry : second.entrySet()) {
+                Set<Task> taskSet = first.get(entry.getKey());
+                if (taskSet == null) {
+                    first.put(entry.getKey(), entry.getValue());
+                } else {
+                    taskSet.addAll(entry.getValue());
+                }
+            }
+            return first;
+        }
+    }
+
+    /**
+     * Returns the calendar of tasks for a given period as a stream of its entries in ascending order of dates.
+     * Unlike {@link #calendar(Iterable, Date, Date)} the table is not built in memory:
+     * the next entry is computed when the stream requests it, by merging alert times of the incoming tasks.
+     *
+     * @param tasks task collection for which it is needed to find incoming tasks
+     * @param start start time of the interval in which it is needed to find tasks with notification
+     * @param end   end time of the interval in which it is needed to find tasks with notification
+     * @return a stream of dates with the sets of tasks that must be performed at that time
+     */
+    public static Stream<Map.Entry<Date, Set<Task>>> calendarStream(Iterable<Task> tasks, Date start, Date end) {
+        Iterable<Task> incomingTasks = incoming(tasks, start, end);
+        Iterator<Map.Entry<Date, Set<Task>>> entries = new CalendarIterator(incomingTasks, start.getTime(), end.getTime());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Iterator over entries of a calendar, which merges alert times of the tasks in ascending order
+     */
+    private static class CalendarIterator implements Iterator<Map.Entry<Date, Set<Task>>> {
+        private final PriorityQueue<Occurrences> queue = new PriorityQueue<>();
+
+        /**
+         * Alert times of one task with the time of its next alert
+         */
+        private static class Occurrences implements Comparable<Occurrences> {
+            private final Task task;
+            private final PrimitiveIterator.OfLong times;
+            private long time;
+
+            private Occurrences(Task task, PrimitiveIterator.OfLong times) {
+                this.task = task;
+                this.times = times;
+                this.time = times.nextLong();
+            }
+
+            @Override
+            public int compareTo(Occurrences o) {
+                return Long.compare(time, o.time);
+            }
+        }
+
+        private CalendarIterator(Iterable<Task> tasks, long start, long end) {
+            for (Task t : tasks) {
+                PrimitiveIterator.OfLong times = t.occurrences(start, end);
+                if (times.hasNext()) {
+                    queue.add(new Occurrences(t, times));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<Date, Set<Task>> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more dates in the calendar.");
+            }
+            long time = queue.peek().time;
+            Set<Task> taskSet = new HashSet<>();
+            while (!queue.isEmpty() && queue.peek().time == time) {
+                Occurrences occurrences = queue.poll();
+                taskSet.add(occurrences.task);
+                if (occurrences.times.hasNext()) {
+                    occurrences.time = occurrences.times.nextLong();
+                    queue.add(occurrences);
+                }
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(new Date(time), taskSet);
+        }
+    }
+
     /**
      * Adds task to a map
      *
@@ -0,0 +1,362 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+/**
+ * The TextTaskLoader class reads a large file in the text format (see {@link TaskIO}) in parallel.
+ * The file is split into chunks at line boundaries, the chunks are mapped into memory and parsed
+ * by tasks of a {@link ForkJoinPool}, each one with its own {@link TaskTextCodec}.
+ * The parsed tasks are added to the list in the order of the file.
+ * Loading reports its progress and may be cancelled from another thread.
+ * Files in a charset where a line feed is not a single byte are read sequentially.
+ */
+public class TextTaskLoader {
+    /**
+     * Default size of a chunk in bytes
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int SCAN_BUFFER_SIZE = 4096;
+    /**
+     * Number of lines between checks of cancellation
+     */
+    private static final int CANCEL_CHECK_LINES = 1024;
+
+    private final File file;
+    private final int chunkSize;
+    private final Charset charset;
+    private final AtomicLong loadedBytes = new AtomicLong();
+    private volatile long totalBytes;
+    private volatile boolean cancelled;
+    private volatile DoubleConsumer progressListener;
+
+    /**
+     * Creates loader for the file in the default charset.
+     *
+     * @param file text file with tasks
+     */
+    public TextTaskLoader(File file) {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates loader for the file in the default charset with the specified size of chunks.
+     *
+     * @param file      text file with tasks
+     * @param chunkSize approximate size of a chunk in bytes
+     */
+    public TextTaskLoader(File file, int chunkSize) {
+        if (file == null) {
+            throw new IllegalArgumentException("File can't be null.");
+        } else if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Entered value: chunkSize=" + chunkSize + " - not valid. Has to be > 0.");
+        }
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.charset = Charset.defaultCharset();
+    }
+
+    /**
+     * Sets the listener, which receives the part of the file loaded so far, from 0 to 1.
+     * The listener is called from the threads of the pool.
+     *
+     * @param progressListener progress listener or {@code null}
+     */
+    public void setProgressListener(DoubleConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Returns the part of the file loaded so far.
+     *
+     * @return value from 0 to 1
+     */
+    public double getProgress() {
+        long total = totalBytes;
+        return total == 0 ? 0 : (double) loadedBytes.get() / total;
+    }
+
+    /**
+     * Cancels loading. {@link #load(TaskList)} throws {@link CancellationException} and the list is left unchanged.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns whether loading is cancelled.
+     *
+     * @return whether loading is cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Loads tasks from the file in the common fork/join pool.
+     *
+     * @param tasks list to which the tasks are added
+     * @throws IOException           if an I/O error occurs
+     * @throws ParseException        if a line can't be parsed; the message contains the number of the line in the file
+     * @throws CancellationException if loading is cancelled
+     */
+    public void load(TaskList tasks) throws IOException, ParseException {
+        load(tasks, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads tasks from the file in the specified pool. The list is presized, if it is an {@link ArrayTaskList},
+     * and changed only when the whole file is parsed.
+     *
+     * @param tasks list to which the tasks are added
+     * @param pool  pool where chunks are parsed
+     * @throws IOException           if an I/O error occurs
+     * @throws ParseException        if a line can't be parsed; the message contains the number of the line in the file
+     * @throws CancellationException if loading is cancelled
+     */
+    public void load(TaskList tasks, ForkJoinPool pool) throws IOException, ParseException {
+        if (!splitsByBytes(charset)) {
+            loadSequentially(tasks);
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            totalBytes = channel.size();
+            loadedBytes.set(0);
+            List<ChunkAction> chunks = split(channel);
+            checkCancelled();
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(chunks);
+                }
+            });
+            checkCancelled();
+            for (ChunkAction chunk : chunks) {
+                if (chunk.error != null) {
+                    throw lineError(channel, chunk);
+                }
+            }
+            int count = 0;
+            for (ChunkAction chunk : chunks) {
+                count += chunk.tasks.size();
+            }
+            if (tasks instanceof ArrayTaskList) {
+                ((ArrayTaskList) tasks).ensureCapacity(tasks.size() + count);
+            }
+            for (ChunkAction chunk : chunks) {
+                for (Task task : chunk.tasks) {
+                    tasks.add(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether text in the charset can be split into lines by bytes: a line feed is a single byte,
+     * which is not a part of another character
+     *
+     * @param charset charset of the text
+     * @return {@code true} if the text can be split by bytes
+     */
+    static boolean splitsByBytes(Charset charset) {
+        byte[] lineFeed = "\n".getBytes(charset);
+        return lineFeed.length == 1 && lineFeed[0] == '\n'
+                && (charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1);
+    }
+
+    /**
+     * Reads the file with a single codec, for charsets in which the file can't be split by bytes
+     */
+    private void loadSequentially(TaskList tasks) throws IOException, ParseException {
+        totalBytes = file.length();
+        ArrayTaskList loaded = new ArrayTaskList();
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), charset)) {
+            new TaskTextCodec().read(loaded, reader);
+        }
+        checkCancelled();
+        for (Task task : loaded) {
+            tasks.add(task);
+        }
+        progress(totalBytes);
+    }
+
+    /**
+     * Splits the file into chunks, which end after a line break (CR, LF or CR LF) or at the end of the file
+     */
+    private List<ChunkAction> split(FileChannel channel) throws IOException {
+        List<ChunkAction> chunks = new ArrayList<>();
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long start = 0;
+        long size = channel.size();
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            while (end < size) {
+                scan.clear();
+                int count = channel.read(scan, end);
+                if (count <= 0) {
+                    end = size;
+                    break;
+                }
+                int i = 0;
+                while (i < count && scan.get(i) != '\n' && (scan.get(i) != '\r' || i == count - 1)) {
+                    i++;
+                }
+                if (i < count) {
+                    boolean crLf = scan.get(i) == '\r' && scan.get(i + 1) == '\n';
+                    end += crLf ? i + 2 : i + 1;
+                    break;
+                }
+                // a CR at the end of the buffer is read again with the next byte, so that CR LF isn't split
+                end += count > 1 && scan.get(count - 1) == '\r' ? count - 1 : count;
+            }
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line is too long in file \"" + file + "\".");
+            }
+            chunks.add(new ChunkAction(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start, chunks.size()));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Creates the exception for the first failed chunk with the number of the line in the whole file.
+     * The number is found by counting line breaks (CR, LF or CR LF) before the chunk, then the line is parsed again.
+     */
+    private ParseException lineError(FileChannel channel, ChunkAction chunk) throws IOException {
+        long lines = 0;
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = 0;
+        boolean afterCr = false;
+        while (position < chunk.start) {
+            scan.clear();
+            if (chunk.start - position < SCAN_BUFFER_SIZE) {
+                scan.limit((int) (chunk.start - position));
+            }
+            int count = channel.read(scan, position);
+            if (count <= 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                byte b = scan.get(i);
+                if (b == '\r' || (b == '\n' && !afterCr)) {
+                    lines++;
+                }
+                afterCr = b == '\r';
+            }
+            position += count;
+        }
+        long lineNumber = lines + chunk.errorLine;
+        try {
+            new TaskTextCodec().parse(chunk.errorText, 0, chunk.errorText.length, (int) Math.min(lineNumber, Integer.MAX_VALUE));
+        } catch (ParseException e) {
+            return e;
+        }
+        return chunk.error;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Loading of file \"" + file + "\" is cancelled.");
+        }
+    }
+
+    private void progress(long bytes) {
+        long loaded = loadedBytes.addAndGet(bytes);
+        DoubleConsumer listener = progressListener;
+        if (listener != null && totalBytes > 0) {
+            listener.accept((double) loaded / totalBytes);
+        }
+    }
+
+    /**
+     * Parses one chunk of the file. Errors are kept instead of thrown, so that the first one in the file is reported.
+     */
+    private class ChunkAction extends RecursiveAction {
+        private static final long serialVersionUID = -7964253518310824722L;
+        private final MappedByteBuffer bytes;
+        private final long start;
+        private final int index;
+        private final List<Task> tasks = new ArrayList<>();
+        private ParseException error;
+        private int errorLine;
+        /**
+         * Text of the failed line, only it is kept after the chunk is parsed
+         */
+        private char[] errorText;
+
+        private ChunkAction(MappedByteBuffer bytes, long start, int index) {
+            this.bytes = bytes;
+            this.start = start;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            CharBuffer decoded;
+            try {
+                decoded = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                        .decode(bytes);
+            } catch (IOException e) {
+                error = new ParseException("Chunk " + index + " of file \"" + file + "\" can't be decoded.", 0);
+                return;
+            }
+            char[] chars = new char[decoded.remaining()];
+            decoded.get(chars);
+            TaskTextCodec codec = new TaskTextCodec();
+            int lineNumber = 1;
+            int from = 0;
+            while (from < chars.length) {
+                int to = from;
+                while (to < chars.length && chars[to] != '\n' && chars[to] != '\r') {
+                    to++;
+                }
+                try {
+                    Task task = codec.parse(chars, from, to, lineNumber);
+                    if (task != null) {
+                        tasks.add(task);
+                    }
+                } catch (ParseException e) {
+                    error = e;
+                    errorLine = lineNumber;
+                    errorText = Arrays.copyOfRange(chars, from, to);
+                    return;
+                }
+                if (to < chars.length && chars[to] == '\r' && to + 1 < chars.length && chars[to + 1] == '\n') {
+                    to++;
+                }
+                from = to + 1;
+                lineNumber++;
+                if (lineNumber % CANCEL_CHECK_LINES == 0 && cancelled) {
+                    return;
+                }
+            }
+            progress(bytes.capacity());
+        }
+    }
+}
@@ -46,6 +46,16 @@ public class DialogWindow {
         showDialogWindow("Information Dialog", null, text, Alert.AlertType.INFORMATION);
     }
 
+    /**
+     * Shows the information dialog with a header
+     *
+     * @param header text to show in the dialog header area
+     * @param text   text to show in the dialog content area
+     */
+    public static void showInfoWindow(String header, String text) {
+        showDialogWindow("Information Dialog", header, text, Alert.AlertType.INFORMATION);
+    }
+
     /**
      * Shows the error dialog
      *
@@ -0,0 +1,142 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that task lists written in the binary formats of {@link TaskIO} are read back unchanged:
+ * the current format with a header, the previous format without one and the file with record slots.
+ */
+public class TaskIOTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        ArrayTaskList tasks = sampleTasks();
+        ArrayTaskList read = new ArrayTaskList();
+        TaskIO.read(read, new ByteArrayInputStream(write(tasks)));
+        assertEquals(tasks, read);
+    }
+
+    @Test
+    public void binaryRoundTripOfEmptyList() throws IOException {
+        LinkedTaskList read = new LinkedTaskList();
+        TaskIO.read(read, new ByteArrayInputStream(write(new ArrayTaskList())));
+        assertEquals(0, read.size());
+    }
+
+    @Test
+    public void binaryFileRoundTrip() throws IOException {
+        ArrayTaskList tasks = sampleTasks();
+        File file = folder.newFile("tasks.bin");
+        TaskIO.writeBinary(tasks, file);
+        ArrayTaskList read = new ArrayTaskList();
+        TaskIO.readBinary(read, file);
+        assertEquals(tasks, read);
+    }
+
+    @Test
+    public void readsFormerBinaryFormat() throws IOException {
+        ArrayTaskList tasks = sampleTasks();
+        ArrayTaskList read = new ArrayTaskList();
+        TaskIO.read(read, new ByteArrayInputStream(writeVersion1(tasks)));
+        assertEquals(tasks, read);
+    }
+
+    @Test
+    public void currentFormatIsSmallerThanFormerFormat() throws IOException {
+        ArrayTaskList tasks = sampleTasks();
+        assertTrue(write(tasks).length < writeVersion1(tasks).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws IOException {
+        byte[] bytes = write(sampleTasks());
+        bytes[4] = 99;
+        TaskIO.read(new ArrayTaskList(), new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void mappedPatchesKeepTheOrderOfTheList() throws IOException {
+        File file = new File(folder.getRoot(), "tasks.tsm");
+        ArrayTaskList tasks = sampleTasks();
+        assertEquals(-1, TaskIO.writeMappedDelta(tasks, file));
+        tasks.remove(tasks.getTask(1));
+        tasks.add(new Task("Added", new Date(1700000000000L)));
+        assertEquals(2, TaskIO.writeMappedDelta(tasks, file));
+        assertEquals(toList(tasks), toList(TaskIO.openMapped(file)));
+        ArrayTaskList read = new ArrayTaskList();
+        TaskIO.readMapped(read, file);
+        assertEquals(tasks, read);
+        read.remove(read.getTask(0));
+        assertEquals(1, TaskIO.writeMappedDelta(read, file));
+        assertEquals(toList(read), toList(TaskIO.openMapped(file)));
+        assertFalse(new File(file.getPath() + TaskIO.PATCH_LOG_SUFFIX).exists());
+    }
+
+    private static ArrayTaskList sampleTasks() {
+        ArrayTaskList tasks = new ArrayTaskList();
+        Task report = new Task("Write report", new Date(1500000000000L));
+        report.setActive(true);
+        tasks.add(report);
+        Task standup = new Task("Standup \"daily\"", new Date(1500000000000L), new Date(1500864000000L), 1440);
+        standup.setActive(true);
+        tasks.add(standup);
+        tasks.add(new Task("Зустріч", new Date(1400000000000L), new Date(1400086400000L), 60));
+        tasks.add(new Task("Old", new Date(0)));
+        return tasks;
+    }
+
+    private static byte[] write(TaskList tasks) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskIO.write(tasks, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the tasks in the former binary format: the number of tasks, then for each task the length
+     * of the title, the title in UTF-16, activity, repetition interval and times
+     */
+    private static byte[] writeVersion1(TaskList tasks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(tasks.size());
+            for (Task task : tasks) {
+                out.write(task.getTitle().length());
+                out.writeChars(task.getTitle());
+                out.writeBoolean(task.isActive());
+                out.writeInt(task.getRepeatInterval());
+                if (task.isRepeated()) {
+                    out.writeLong(task.getStartTime().getTime());
+                    out.writeLong(task.getEndTime().getTime());
+                } else {
+                    out.writeLong(task.getTime().getTime());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Task> toList(TaskList tasks) {
+        List<Task> list = new ArrayList<>();
+        for (Task task : tasks) {
+            list.add(task);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,149 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the changes appended to a {@link TaskJournal} are replayed onto the list read from the file
+ * and that compaction moves them into the file.
+ */
+public class TaskJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private ArrayTaskList tasks;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("tasks.txt");
+        tasks = new ArrayTaskList();
+        tasks.add(task("First", 1500000000000L));
+        tasks.add(task("Second", 1500000060000L));
+        TaskIO.writeText(tasks, file);
+    }
+
+    @Test
+    public void replaysChangesOntoTheFile() throws IOException, ParseException {
+        Task added = task("Added", 1500000120000L);
+        Task edited = task("Second, edited", 1500000180000L);
+        try (TaskJournal journal = new TaskJournal(file)) {
+            journal.start();
+            journal.add(added);
+            journal.remove(tasks.getTask(0));
+            journal.edit(tasks.getTask(1), edited);
+        }
+        ArrayTaskList expected = new ArrayTaskList();
+        expected.add(added);
+        expected.add(edited);
+        ArrayTaskList replayed = readFile();
+        try (TaskJournal journal = new TaskJournal(file)) {
+            assertEquals(3, journal.replay(replayed));
+        }
+        assertEquals(toSet(expected), toSet(replayed));
+    }
+
+    @Test
+    public void compactionWritesTheListToTheFile() throws IOException, ParseException {
+        try (TaskJournal journal = new TaskJournal(file)) {
+            journal.start();
+            Task added = task("Added", 1500000120000L);
+            journal.add(added);
+            tasks.add(added);
+            journal.compact(tasks);
+            assertEquals(0, journal.getRecordCount());
+        }
+        ArrayTaskList replayed = readFile();
+        assertEquals(tasks, replayed);
+        try (TaskJournal journal = new TaskJournal(file)) {
+            assertEquals(0, journal.replay(replayed));
+        }
+        assertEquals(tasks, replayed);
+    }
+
+    @Test
+    public void changesAfterTheCompactedStateAreKept() throws IOException, ParseException {
+        Task late = task("Late", 1500000240000L);
+        try (TaskJournal journal = new TaskJournal(file)) {
+            journal.start();
+            Task added = task("Added", 1500000120000L);
+            journal.add(added);
+            tasks.add(added);
+            long position = journal.getPosition();
+            TaskList compacted = tasks.clone();
+            journal.add(late);
+            journal.compact(compacted, position);
+            assertEquals(1, journal.getRecordCount());
+        }
+        ArrayTaskList replayed = readFile();
+        try (TaskJournal journal = new TaskJournal(file)) {
+            assertEquals(1, journal.replay(replayed));
+        }
+        tasks.add(late);
+        assertEquals(tasks, replayed);
+    }
+
+    @Test
+    public void tornRecordIsIgnored() throws IOException, ParseException {
+        Task added = task("Added", 1500000120000L);
+        Task after = task("After", 1500000300000L);
+        try (TaskJournal journal = new TaskJournal(file)) {
+            journal.start();
+            journal.add(added);
+        }
+        try (FileOutputStream out = new FileOutputStream(file.getPath() + TaskJournal.JOURNAL_SUFFIX, true)) {
+            out.write(new byte[]{0, 0, 0, 42, 1, 2});
+        }
+        ArrayTaskList replayed = readFile();
+        try (TaskJournal journal = new TaskJournal(file)) {
+            assertEquals(1, journal.replay(replayed));
+            journal.add(after);
+        }
+        ArrayTaskList again = readFile();
+        try (TaskJournal journal = new TaskJournal(file)) {
+            assertEquals(2, journal.replay(again));
+        }
+        tasks.add(added);
+        tasks.add(after);
+        assertEquals(tasks, again);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void journalHasToBeOpenedBeforeAppending() throws IOException {
+        try (TaskJournal journal = new TaskJournal(file)) {
+            journal.add(task("Added", 1500000120000L));
+        }
+    }
+
+    private ArrayTaskList readFile() throws IOException, ParseException {
+        ArrayTaskList read = new ArrayTaskList();
+        TaskIO.readText(read, file);
+        return read;
+    }
+
+    private static Task task(String title, long time) {
+        Task task = new Task(title, new Date(time));
+        task.setActive(true);
+        return task;
+    }
+
+    private static Set<Task> toSet(TaskList tasks) {
+        Set<Task> set = new HashSet<>();
+        for (Task task : tasks) {
+            set.add(task);
+        }
+        return set;
+    }
+}
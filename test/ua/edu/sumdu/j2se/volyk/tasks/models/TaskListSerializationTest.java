@@ -0,0 +1,106 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that task lists are serialized in the compact format and that the streams written
+ * by the former versions of the classes are still read.
+ */
+public class TaskListSerializationTest {
+    /**
+     * Stream written by the former versions: an {@link ArrayTaskList} with the tasks of {@link #expectedTasks()}
+     * and an empty {@link LinkedTaskList}, both in the default serialization format
+     */
+    private static final String LEGACY_STREAM =
+            "rO0ABXNyADJ1YS5lZHUuc3VtZHUuajJzZS52b2x5ay50YXNrcy5tb2RlbHMuQXJyYXlUYXNrTGlzdEC+Csh5NyI3AgABWwAE" +
+            "bGlzdHQALFtMdWEvZWR1L3N1bWR1L2oyc2Uvdm9seWsvdGFza3MvbW9kZWxzL1Rhc2s7eHIALXVhLmVkdS5zdW1kdS5qMnNl" +
+            "LnZvbHlrLnRhc2tzLm1vZGVscy5UYXNrTGlzdBHsKXQIRWGxAgABSQAEc2l6ZXhwAAAAA3VyACxbTHVhLmVkdS5zdW1kdS5q" +
+            "MnNlLnZvbHlrLnRhc2tzLm1vZGVscy5UYXNrOwP3tLzhDrhhAgAAeHAAAAAUc3IAKXVhLmVkdS5zdW1kdS5qMnNlLnZvbHlr" +
+            "LnRhc2tzLm1vZGVscy5UYXNrSTDoQE02pw8CAAZaAAZhY3RpdmVJAA5yZXBlYXRJbnRlcnZhbFoACHJlcGVhdGVkTAAHZW5k" +
+            "VGltZXQAEExqYXZhL3V0aWwvRGF0ZTtMAAlzdGFydFRpbWVxAH4AB0wABXRpdGxldAASTGphdmEvbGFuZy9TdHJpbmc7eHAB" +
+            "AAAAAABzcgAOamF2YS51dGlsLkRhdGVoaoEBS1l0GQMAAHhwdwgAAAFdPveYAHhxAH4AC3QADFdyaXRlIHJlcG9ydHNxAH4A" +
+            "BgEAAAWgAXNxAH4ACncIAAABXXJ3MAB4c3EAfgAKdwgAAAFdPveYAHh0AAdTdGFuZHVwc3EAfgAGAAAAADwBc3EAfgAKdwgA" +
+            "AAF0jJTcAHhzcQB+AAp3CAAAAXSHboAAeHEAfgAQcHBwcHBwcHBwcHBwcHBwcHBzcgAzdWEuZWR1LnN1bWR1Lmoyc2Uudm9s" +
+            "eWsudGFza3MubW9kZWxzLkxpbmtlZFRhc2tMaXN04ocMXDk16G8CAAFMAARoZWFkdAA+THVhL2VkdS9zdW1kdS9qMnNlL3Zv" +
+            "bHlrL3Rhc2tzL21vZGVscy9MaW5rZWRUYXNrTGlzdCRMaXN0SXRlbTt4cQB+AAIAAAAAcA==";
+
+    @Test
+    public void readsListsWrittenByFormerVersions() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(LEGACY_STREAM)))) {
+            ArrayTaskList array = (ArrayTaskList) in.readObject();
+            LinkedTaskList linked = (LinkedTaskList) in.readObject();
+            assertEquals(expectedTasks(), array);
+            assertEquals(0, linked.size());
+            array.add(new Task("Added", new Date(1)));
+            assertEquals(4, array.size());
+        }
+    }
+
+    @Test
+    public void arrayTaskListRoundTrip() throws IOException, ClassNotFoundException {
+        ArrayTaskList tasks = expectedTasks();
+        assertEquals(tasks, roundTrip(tasks));
+        ArrayTaskList indexed = new ArrayTaskList(true);
+        indexed.addAll(tasks);
+        ArrayTaskList copy = (ArrayTaskList) roundTrip(indexed);
+        assertEquals(tasks, copy);
+        assertTrue(copy.contains(tasks.getTask(2)));
+    }
+
+    @Test
+    public void linkedTaskListRoundTrip() throws IOException, ClassNotFoundException {
+        LinkedTaskList tasks = new LinkedTaskList();
+        tasks.addAll(expectedTasks());
+        assertEquals(tasks, roundTrip(tasks));
+    }
+
+    @Test
+    public void compactFormatIsSmallerThanFormerFormat() throws IOException {
+        ArrayTaskList tasks = new ArrayTaskList();
+        for (int i = 0; i < 1000; i++) {
+            tasks.addAll(expectedTasks());
+        }
+        int legacyPerList = Base64.getDecoder().decode(LEGACY_STREAM).length;
+        assertTrue(serialize(tasks).length * 3 < legacyPerList * 1000);
+    }
+
+    /**
+     * Tasks of the list in {@link #LEGACY_STREAM}
+     */
+    private static ArrayTaskList expectedTasks() {
+        ArrayTaskList tasks = new ArrayTaskList();
+        Task report = new Task("Write report", new Date(1500000000000L));
+        report.setActive(true);
+        Task daily = new Task("Standup", new Date(1500000000000L), new Date(1500864000000L), 1440);
+        daily.setActive(true);
+        tasks.add(report);
+        tasks.add(daily);
+        tasks.add(new Task("Standup", new Date(1600000000000L), new Date(1600086400000L), 60));
+        return tasks;
+    }
+
+    private static byte[] serialize(TaskList tasks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(tasks);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static TaskList roundTrip(TaskList tasks) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(tasks)))) {
+            return (TaskList) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that scanning tasks for the calendar allocates nothing per task:
+ * the memory allocated by {@link Tasks#calendar(Iterable, Date, Date)} doesn't grow with
+ * the number of tasks which have no notification in the period.
+ */
+public class TasksAllocationTest {
+    private static final int TASKS = 100000;
+    private static final int WARM_UP_ROUNDS = 20;
+    /**
+     * Allowed allocation per call, for the result and iterators, independent of the number of tasks
+     */
+    private static final long CALL_ALLOCATION = 4096;
+    private static final Date FROM = new Date(1000000000L);
+    private static final Date TO = new Date(1000000000L + 3600000L);
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void calendarOfTaskListAllocatesNothingPerTask() {
+        ArrayTaskList tasks = new ArrayTaskList();
+        fill(tasks);
+        assertCalendarAllocation(tasks);
+    }
+
+    @Test
+    public void calendarOfIterableAllocatesNothingPerTask() {
+        List<Task> tasks = new ArrayList<>();
+        fill(tasks);
+        assertCalendarAllocation(tasks);
+    }
+
+    @Test
+    public void nextTimeAfterAllocatesNothing() {
+        Task task = new Task("Repeated", new Date(0), new Date(TO.getTime() * 2), 60);
+        task.setActive(true);
+        long sum = 0;
+        for (int i = 0; i < WARM_UP_ROUNDS * TASKS; i++) {
+            sum += task.nextTimeAfter(i);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < TASKS; i++) {
+            sum += task.nextTimeAfter(FROM.getTime() + i);
+        }
+        long allocated = allocatedBytes() - before;
+        assertTrue("Allocated " + allocated + " bytes for " + TASKS + " calls", allocated < CALL_ALLOCATION);
+        assertTrue(sum != 0);
+    }
+
+    /**
+     * Adds tasks whose notifications are all outside the period: one-time tasks before it,
+     * repeated tasks which end before it, inactive tasks in it
+     */
+    private static void fill(Collection<Task> tasks) {
+        for (int i = 0; i < TASKS; i++) {
+            Task task;
+            switch (i % 3) {
+                case 0:
+                    task = new Task("One-time " + i, new Date(i));
+                    task.setActive(true);
+                    break;
+                case 1:
+                    task = new Task("Repeated " + i, new Date(i), new Date(FROM.getTime() - 1), 60);
+                    task.setActive(true);
+                    break;
+                default:
+                    task = new Task("Inactive " + i, new Date(FROM.getTime() + i % 1000));
+                    break;
+            }
+            tasks.add(task);
+        }
+    }
+
+    private void assertCalendarAllocation(Iterable<Task> tasks) {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            assertEquals(0, Tasks.calendar(tasks, FROM, TO).size());
+        }
+        long before = allocatedBytes();
+        int size = Tasks.calendar(tasks, FROM, TO).size();
+        long allocated = allocatedBytes() - before;
+        assertEquals(0, size);
+        assertTrue("Allocated " + allocated + " bytes for " + TASKS + " tasks", allocated < CALL_ALLOCATION);
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
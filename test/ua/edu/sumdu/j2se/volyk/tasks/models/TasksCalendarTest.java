@@ -0,0 +1,94 @@
+package ua.edu.sumdu.j2se.volyk.tasks.models;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the calendar built in parallel is the same as the one built by a single thread.
+ */
+public class TasksCalendarTest {
+    private static final long MINUTE = 60 * 1000L;
+    private static final long FROM = 1500000000000L;
+    private static final long PERIOD = 30 * 24 * 60 * MINUTE;
+
+    @Test
+    public void parallelCalendarEqualsSequentialCalendar() {
+        ArrayTaskList tasks = randomTasks(20 * Tasks.PARALLEL_THRESHOLD, 1);
+        Date from = new Date(FROM);
+        Date to = new Date(FROM + PERIOD);
+        SortedMap<Date, Set<Task>> sequential = Tasks.calendar(tasks, from, to, false);
+        SortedMap<Date, Set<Task>> parallel = Tasks.calendar(tasks, from, to, true);
+        assertTrue(sequential.size() > Tasks.PARALLEL_THRESHOLD);
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void parallelCalendarOfShortPeriodEqualsSequentialCalendar() {
+        ArrayTaskList tasks = randomTasks(5 * Tasks.PARALLEL_THRESHOLD, 2);
+        Date from = new Date(FROM + PERIOD / 2);
+        Date to = new Date(FROM + PERIOD / 2 + 90 * MINUTE);
+        assertEquals(Tasks.calendar(tasks, from, to, false), Tasks.calendar(tasks, from, to, true));
+    }
+
+    @Test
+    public void parallelCalendarOfFewTasksEqualsSequentialCalendar() {
+        ArrayTaskList tasks = randomTasks(Tasks.PARALLEL_THRESHOLD / 10, 3);
+        Date from = new Date(FROM);
+        Date to = new Date(FROM + PERIOD);
+        assertEquals(Tasks.calendar(tasks, from, to, false), Tasks.calendar(tasks, from, to, true));
+    }
+
+    @Test
+    public void calendarHoldsEveryAlertOfThePeriod() {
+        ArrayTaskList tasks = randomTasks(Tasks.PARALLEL_THRESHOLD, 4);
+        Date from = new Date(FROM);
+        Date to = new Date(FROM + PERIOD / 10);
+        SortedMap<Date, Set<Task>> expected = new TreeMap<>();
+        for (Task task : tasks) {
+            for (Date time = task.nextTimeAfter(from); time != null && !time.after(to); time = task.nextTimeAfter(time)) {
+                Set<Task> alerts = expected.get(time);
+                if (alerts == null) {
+                    alerts = new HashSet<>();
+                    expected.put(time, alerts);
+                }
+                alerts.add(task);
+            }
+        }
+        SortedMap<Date, Set<Task>> parallel = Tasks.calendar(tasks, from, to, true);
+        assertEquals(expected.size(), parallel.size());
+        for (Map.Entry<Date, Set<Task>> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), parallel.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Returns one-time and repeated tasks around the period, some of them inactive
+     */
+    private static ArrayTaskList randomTasks(int count, long seed) {
+        Random random = new Random(seed);
+        ArrayTaskList tasks = new ArrayTaskList();
+        for (int i = 0; i < count; i++) {
+            long start = FROM - PERIOD / 4 + (long) (random.nextDouble() * PERIOD * 1.5) / MINUTE * MINUTE;
+            Task task;
+            if (random.nextBoolean()) {
+                task = new Task("One-time " + i, new Date(start));
+            } else {
+                long end = start + (long) (random.nextDouble() * PERIOD / 2) / MINUTE * MINUTE;
+                task = new Task("Repeated " + i, new Date(start), new Date(end), 60 + random.nextInt(24 * 60));
+            }
+            task.setActive(random.nextInt(5) > 0);
+            tasks.add(task);
+        }
+        return tasks;
+    }
+}